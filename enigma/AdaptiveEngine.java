@@ -0,0 +1,128 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An engine that chooses among the fused, shifted and compiled engines
+ *  according to the size of the alphabet, the number of rotors and
+ *  pawls, and a memory budget, and passes its work to the one chosen.
+ *  Fused tables are best, but they grow as N^(P+1) for an alphabet of
+ *  size N and P pawls (and the fused engine also uses shifted tables
+ *  until they are built, so both count against the budget); shifted
+ *  tables grow only as N^2 per rotor, and those of rotors no longer
+ *  loaded are dropped to stay within the budget; and the compiled
+ *  engine needs no tables at all.  The choice is made when rotors are
+ *  first loaded (as by Machine.insertRotors), and can be overridden.
+ *  @author Jinho Shin
+ */
+class AdaptiveEngine implements Engine {
+
+    /** An engine for the rotors available to M, spending at most BUDGET
+     *  bytes on tables, and always using the engine named STRATEGY
+     *  ("fused", "shifted" or "compiled"), if it is not null. */
+    AdaptiveEngine(Machine M, long budget, String strategy) {
+        if (strategy != null && !strategy.equals(FUSED)
+            && !strategy.equals(SHIFTED) && !strategy.equals(COMPILED)) {
+            throw error("unknown strategy: %s", strategy);
+        }
+        _machine = M;
+        _budget = budget;
+        _override = strategy;
+    }
+
+    /** An engine for the rotors available to M, with the default
+     *  budget. */
+    AdaptiveEngine(Machine M) {
+        this(M, BUDGET, null);
+    }
+
+    @Override
+    public String name() {
+        return "adaptive";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        if (_engine == null) {
+            _engine = create(_override != null ? _override
+                             : choose(_machine.alphabet().size(),
+                                      _machine.numRotors(),
+                                      _machine.numPawls(), _budget));
+        }
+        _engine.load(rotors);
+    }
+
+    @Override
+    public void store(Rotor[] rotors) {
+        _engine.store(rotors);
+    }
+
+    @Override
+    public int convert(int c) {
+        return _engine.convert(c);
+    }
+
+    /** Return the name of the engine in use, or null before any rotors
+     *  are loaded. */
+    String strategy() {
+        return _engine == null ? null : _engine.name();
+    }
+
+    /** Return a description of the engine in use and why it was
+     *  chosen. */
+    String explain() {
+        int n = _machine.alphabet().size();
+        int rotors = _machine.numRotors(), pawls = _machine.numPawls();
+        return String.format("%s (alphabet %d, %d rotors, %d pawls; fused "
+                             + "table %d bytes, shifted tables %d bytes, "
+                             + "budget %d bytes%s)", strategy(), n, rotors,
+                             pawls, FusedEngine.bytes(n, pawls),
+                             ShiftedEngine.bytes(n, rotors), _budget,
+                             _override == null ? "" : "; overridden");
+    }
+
+    /** Return the name of the engine to use for an alphabet of size N,
+     *  NUMROTORS rotors and NUMPAWLS pawls, within BUDGET bytes. */
+    static String choose(int n, int numRotors, int numPawls, long budget) {
+        long shifted = ShiftedEngine.bytes(n, numRotors);
+        if (shifted <= budget
+            && FusedEngine.bytes(n, numPawls) <= budget - shifted) {
+            return FUSED;
+        } else if (shifted <= budget) {
+            return SHIFTED;
+        } else {
+            return COMPILED;
+        }
+    }
+
+    /** Return a new engine named STRATEGY. */
+    private Engine create(String strategy) {
+        switch (strategy) {
+        case FUSED:
+            return new FusedEngine(_machine, _budget);
+        case SHIFTED:
+            return new ShiftedEngine(_machine, _budget);
+        default:
+            return new CompiledEngine(_machine);
+        }
+    }
+
+    /** Names of the strategies. */
+    static final String FUSED = "fused", SHIFTED = "shifted",
+        COMPILED = "compiled";
+
+    /** Default memory budget, in bytes. */
+    static final long BUDGET = 64L << 20;
+
+    /** Machine whose rotors I use. */
+    private final Machine _machine;
+
+    /** Memory budget for tables, in bytes. */
+    private final long _budget;
+
+    /** Strategy always used, or null to choose. */
+    private final String _override;
+
+    /** Engine in use, or null before any rotors are loaded. */
+    private Engine _engine;
+
+}
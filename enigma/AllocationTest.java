@@ -0,0 +1,117 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+/** Tests that the conversion hot paths allocate nothing once warmed up:
+ *  Machine.convert(int) and the bulk Machine.convert(char[], ...) with
+ *  each engine, and Permutation.permute and invert.  Allocation is
+ *  measured as the bytes allocated by the current thread, as reported
+ *  by the HotSpot ThreadMXBean; the tests pass vacuously on JVMs that do
+ *  not report it.
+ *  @author Jinho Shin
+ */
+public class AllocationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Settings used in the tests. */
+    private static final String SETTINGS =
+        "* B Beta I II III AAAA (AQ) (EP)";
+
+    /** Engines tested. */
+    private static final String[] ENGINES = {
+        "reference", "compiled", "shifted", "fused", "adaptive"
+    };
+
+    /** Number of calls made before measuring. */
+    private static final int WARM_UP = 200_000;
+
+    /** Number of calls measured. */
+    private static final int CALLS = 100_000;
+
+    /** Assert that running BODY, after running it WARM_UP times, does
+     *  not allocate, describing it as PATH in the failure message. */
+    private static void assertNoAllocation(String path, Runnable body) {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP; i += 1) {
+            body.run();
+        }
+        long overhead = threads.getThreadAllocatedBytes(id);
+        overhead = threads.getThreadAllocatedBytes(id) - overhead;
+        long start = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < CALLS; i += 1) {
+            body.run();
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - start
+            - overhead;
+        assertTrue(String.format("%s allocated %d bytes in %d calls", path,
+                                 allocated, CALLS),
+                   allocated <= 0);
+    }
+
+    /** Return a naval machine using ENGINE, set up with SETTINGS. */
+    private static Machine machine(String engine) {
+        Machine M = new MachineTest().navalMachine();
+        M.useEngine(engine);
+        M.apply(Settings.compile(M, SETTINGS));
+        return M;
+    }
+
+    @Test
+    public void testConvertCharacter() {
+        for (String engine : ENGINES) {
+            Machine M = machine(engine);
+            int[] c = new int[1];
+            assertNoAllocation("Machine.convert(int) with engine " + engine,
+                () -> c[0] = M.convert((c[0] + 7) % 26));
+        }
+    }
+
+    @Test
+    public void testConvertBulk() {
+        char[] msg = "HELLO WORLD FROM HIS SHOULDER".toCharArray();
+        char[] result = new char[msg.length];
+        for (String engine : ENGINES) {
+            Machine M = machine(engine);
+            assertNoAllocation("Machine.convert(char[], int, char[]) with "
+                               + "engine " + engine,
+                () -> M.convert(msg, msg.length, result));
+        }
+    }
+
+    @Test
+    public void testPermutation() {
+        Permutation perm =
+            new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+                            new Alphabet());
+        int[] c = new int[1];
+        assertNoAllocation("Permutation.permute(int)",
+            () -> c[0] = perm.permute(c[0] + 3));
+        assertNoAllocation("Permutation.invert(int)",
+            () -> c[0] = perm.invert(c[0] + 5));
+        char[] ch = { 'A' };
+        assertNoAllocation("Permutation.permute(char)",
+            () -> ch[0] = perm.permute(ch[0]));
+        assertNoAllocation("Permutation.invert(char)",
+            () -> ch[0] = perm.invert(ch[0]));
+    }
+
+}
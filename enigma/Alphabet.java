@@ -1,5 +1,6 @@
 package enigma;
-import java.util.ArrayList;
+
+import java.util.Arrays;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
@@ -10,13 +11,23 @@ class Alphabet {
     /** A new alphabet containing CHARS.  Character number #k has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        _charList = new ArrayList<Character>(chars.length());
+        char[] list = new char[chars.length()];
+        int max = -1;
+        for (int i = 0; i < chars.length(); i++) {
+            max = Math.max(max, chars.charAt(i));
+        }
+        _index = new int[max + 1];
+        Arrays.fill(_index, -1);
+        int size = 0;
         for (int i = 0; i < chars.length(); i++) {
-            if (!_charList.contains(chars.charAt(i))) {
-                char c = chars.charAt(i);
-                _charList.add(c);
+            char c = chars.charAt(i);
+            if (_index[c] < 0) {
+                _index[c] = size;
+                list[size] = c;
+                size += 1;
             }
         }
+        _chars = Arrays.copyOf(list, size);
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -26,27 +37,31 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _charList.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _charList.contains(ch);
+        return ch < _index.length && _index[ch] >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return (char) _charList.get(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _charList.indexOf(ch);
+        return ch < _index.length ? _index[ch] : -1;
     }
 
-    /** List of characters in this Alphabet. */
-    private ArrayList<Character> _charList;
+    /** Characters in this Alphabet, in order. */
+    private final char[] _chars;
+
+    /** Index of each character up to the largest in this Alphabet, or -1
+     *  for characters not in it. */
+    private final int[] _index;
 
 }
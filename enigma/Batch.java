@@ -0,0 +1,232 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static enigma.EnigmaException.*;
+
+/** The processing of many input files in one run.  The configuration is
+ *  read once; each file is processed by a copy of its machine, on a
+ *  pool of a bounded number of threads, and its output is written to
+ *  the same relative path under an output directory (gzip-compressed if
+ *  that path ends in .gz, as in Main).  A file that fails does not stop
+ *  the others, and a summary of each file's throughput or failure is
+ *  printed at the end.
+ *  @author Jinho Shin
+ */
+class Batch {
+
+    /** A batch processing the files described by INPUTS (a directory,
+     *  all of whose files are processed, or a glob pattern) with copies
+     *  of machine M, each first passed to SETUP, writing results under
+     *  the directory named OUTPUT, using up to THREADS threads. */
+    Batch(Machine M, Consumer<Machine> setup, String inputs, String output,
+          int threads) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _machine = M;
+        _setup = setup;
+        _output = Paths.get(output);
+        _threads = threads;
+        findInputs(inputs);
+    }
+
+    /** Return the input files, in order. */
+    List<Path> inputs() {
+        return Collections.unmodifiableList(_inputs);
+    }
+
+    /** Return the output file for INPUT. */
+    Path outputFor(Path input) {
+        return _output.resolve(_root.relativize(input).toString());
+    }
+
+    /** Process all the input files, printing a summary to SUMMARY, and
+     *  return the number that failed. */
+    int run(PrintStream summary) {
+        ExecutorService pool = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(_threads, _inputs.size())));
+        long start = System.nanoTime();
+        List<Future<String>> results = new ArrayList<>();
+        for (Path input : _inputs) {
+            results.add(pool.submit(() -> processFile(input)));
+        }
+        pool.shutdown();
+        int failures = 0;
+        for (int i = 0; i < _inputs.size(); i += 1) {
+            String result;
+            try {
+                result = results.get(i).get();
+            } catch (ExecutionException excp) {
+                result = FAILED + excp.getCause();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                result = FAILED + "interrupted";
+            }
+            if (result.startsWith(FAILED)) {
+                failures += 1;
+            }
+            summary.printf("%s: %s%n", _root.relativize(_inputs.get(i)),
+                           result);
+        }
+        summary.printf("%d files, %d failed, %.1f s%n", _inputs.size(),
+                       failures, (System.nanoTime() - start) / 1e9);
+        summary.flush();
+        return failures;
+    }
+
+    /** Process the file INPUT, returning a description of its
+     *  throughput, or of its failure, starting with FAILED. */
+    private String processFile(Path input) {
+        Path target = outputFor(input);
+        long start = System.nanoTime();
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            Machine M = _machine.copy();
+            _setup.accept(M);
+            long chars;
+            try (BufferedReader in = new BufferedReader(
+                     new InputStreamReader(Compression.decompress(
+                         Files.newInputStream(input))), BUFFER);
+                 Writer out = new BufferedWriter(
+                     new OutputStreamWriter(create(target)), BUFFER)) {
+                chars = convert(M, in, out);
+            }
+            double secs = Math.max(System.nanoTime() - start, 1) / 1e9;
+            return String.format("%d chars, %.0f chars/s", chars,
+                                 chars / secs);
+        } catch (EnigmaException excp) {
+            return FAILED + excp.getMessage();
+        } catch (IOException excp) {
+            return FAILED + "I/O error: " + excp.getMessage();
+        }
+    }
+
+    /** Return a stream writing to a new file at TARGET, compressing its
+     *  contents if TARGET ends in .gz. */
+    private static OutputStream create(Path target) throws IOException {
+        OutputStream result = Files.newOutputStream(target);
+        if (target.toString().endsWith(".gz")) {
+            result = Compression.compress(result);
+        }
+        return result;
+    }
+
+    /** Apply M to the messages read from IN, writing the results to OUT,
+     *  as Main does, and return the number of characters converted. */
+    private static long convert(Machine M, BufferedReader in, Writer out)
+        throws IOException {
+        SettingsCache settings =
+            new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+        InputStart start = new InputStart();
+        long chars = 0;
+        char[] result = new char[0];
+        for (String s = in.readLine(); s != null; s = in.readLine()) {
+            start.next(s);
+            if (s.contains("*")) {
+                M.apply(settings.get(s));
+            } else {
+                if (result.length < s.length()) {
+                    result = new char[s.length()];
+                }
+                int n = M.convert(s.toCharArray(), s.length(), result);
+                chars += n;
+                out.write(Main.groups(new String(result, 0, n)));
+                out.write(System.lineSeparator());
+            }
+        }
+        start.finish();
+        return chars;
+    }
+
+    /** Set _root and _inputs from INPUTS, as described for the
+     *  constructor. */
+    private void findInputs(String inputs) {
+        Path dir = Paths.get(inputs);
+        try {
+            if (Files.isDirectory(dir)) {
+                _root = dir;
+                try (Stream<Path> files = Files.walk(dir)) {
+                    _inputs = files.filter(Files::isRegularFile).sorted()
+                        .collect(Collectors.toList());
+                }
+            } else {
+                _root = globRoot(inputs);
+                PathMatcher matcher =
+                    _root.getFileSystem().getPathMatcher("glob:" + inputs);
+                try (Stream<Path> files = Files.walk(_root)) {
+                    _inputs = files.filter(Files::isRegularFile)
+                        .filter(matcher::matches).sorted()
+                        .collect(Collectors.toList());
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not list %s", inputs);
+        }
+        if (_inputs.isEmpty()) {
+            throw error("no input files match %s", inputs);
+        }
+    }
+
+    /** Return the longest leading directory of the glob PATTERN that
+     *  contains no wildcards. */
+    private static Path globRoot(String pattern) {
+        int end = pattern.length();
+        for (int i = 0; i < pattern.length(); i += 1) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                end = i;
+                break;
+            }
+        }
+        int slash = pattern.lastIndexOf('/', end);
+        return Paths.get(slash < 0 ? "" : pattern.substring(0, slash + 1));
+    }
+
+    /** Prefix of the summary of a file that failed. */
+    static final String FAILED = "FAILED: ";
+
+    /** Size of file buffers. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Machine whose configuration is copied for each file. */
+    private final Machine _machine;
+
+    /** Applied to each copy of _machine. */
+    private final Consumer<Machine> _setup;
+
+    /** Directory receiving outputs. */
+    private final Path _output;
+
+    /** Maximum number of threads. */
+    private final int _threads;
+
+    /** Directory to which input paths are relative. */
+    private Path _root;
+
+    /** Input files. */
+    private List<Path> _inputs;
+
+}
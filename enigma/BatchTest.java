@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/** The suite of all JUnit tests for Batch.
+ *  @author Jinho Shin
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Write TEXT to the file at PATH, creating its directory. */
+    private static void write(Path path, String text) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, text.getBytes());
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = dir.resolve("in"), out = dir.resolve("out");
+        String settings = "* B Beta I II III AAAA (AQ) (EP)\n";
+        write(in.resolve("a.in"), settings + "HELLO WORLD\n");
+        write(in.resolve("sub/b.in"), settings + "\nFROM HIS SHOULDER\n");
+        write(in.resolve("sub/c.in"), "HELLO\n");
+
+        Machine m = new MachineTest().navalMachine();
+        Batch batch = new Batch(m, M -> M.useEngine("compiled"),
+                                in.toString(), out.toString(), 2);
+        assertEquals(3, batch.inputs().size());
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        assertEquals(1, batch.run(new PrintStream(summary)));
+        assertTrue(summary.toString().contains(
+                       "c.in: " + Batch.FAILED + "need a setting first"));
+
+        String nl = System.lineSeparator();
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, settings.trim()));
+        assertEquals(Main.groups(ref.convert("HELLO WORLD")) + nl,
+                     new String(Files.readAllBytes(out.resolve("a.in"))));
+        ref.apply(Settings.compile(ref, settings.trim()));
+        assertEquals(nl + Main.groups(ref.convert("FROM HIS SHOULDER"))
+                     + nl,
+                     new String(Files.readAllBytes(
+                                    out.resolve("sub/b.in"))));
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        String settings = "* B Beta I II III AAAA (AQ) (EP)";
+        Files.createDirectories(dir.resolve("in"));
+        try (OutputStream out = Compression.compress(
+                 Files.newOutputStream(dir.resolve("in/d.in.gz")))) {
+            out.write((settings + "\nHELLO WORLD\n").getBytes());
+        }
+        Batch batch = new Batch(new MachineTest().navalMachine(), M -> { },
+                                dir + "/in", dir + "/out", 1);
+        assertEquals(0, batch.run(new PrintStream(
+                                      new ByteArrayOutputStream())));
+        Path target = dir.resolve("out/d.in.gz");
+        try (BufferedInputStream in = new BufferedInputStream(
+                 Files.newInputStream(target))) {
+            assertTrue(Compression.compressed(in));
+        }
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, settings));
+        try (InputStream in = new GZIPInputStream(
+                 Files.newInputStream(target))) {
+            assertEquals(Main.groups(ref.convert("HELLO WORLD"))
+                         + System.lineSeparator(),
+                         new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        write(dir.resolve("x/a.in"), "* B Beta I II III AAAA\n");
+        write(dir.resolve("x/a.out"), "");
+        write(dir.resolve("x/y/b.in"), "* B Beta I II III AAAA\n");
+        Batch batch = new Batch(new MachineTest().navalMachine(), M -> { },
+                                dir + "/x/**.in", dir + "/out", 1);
+        assertEquals(2, batch.inputs().size());
+        assertEquals(dir.resolve("out/y/b.in"),
+                     batch.outputFor(batch.inputs().get(1)));
+    }
+
+}
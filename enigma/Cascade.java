@@ -0,0 +1,162 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A cascade of machines for super-encipherment: each character is
+ *  converted by the first machine, its result by the second, and so on,
+ *  in a single pass over the message, with no intermediate messages.
+ *  Each machine steps independently, exactly as it would if the whole
+ *  message were converted by each machine in turn.  All the machines
+ *  must have the same alphabet.
+ *
+ *  A settings line for a cascade holds one setting per machine, in
+ *  order, each starting with an asterisk, as in
+ *      * B Beta I II III AAAA (AQ) * B Gamma III II I ZZZZ
+ *  @author Jinho Shin
+ */
+class Cascade {
+
+    /** A cascade of MACHINES, in order. */
+    Cascade(List<Machine> machines) {
+        if (machines.isEmpty()) {
+            throw error("a cascade needs at least one machine");
+        }
+        _machines = machines.toArray(new Machine[0]);
+        _alphabet = _machines[0].alphabet();
+        _settings = new SettingsCache[_machines.length];
+        for (int k = 0; k < _machines.length; k += 1) {
+            if (!sameAlphabet(_alphabet, _machines[k].alphabet())) {
+                throw error("machine %d of the cascade has a different "
+                            + "alphabet", k + 1);
+            }
+            _settings[k] = new SettingsCache(_machines[k],
+                                             SettingsCache.DEFAULT_CAPACITY);
+        }
+    }
+
+    /** Return the number of machines. */
+    int size() {
+        return _machines.length;
+    }
+
+    /** Return machine K (numbered from 0). */
+    Machine machine(int k) {
+        return _machines[k];
+    }
+
+    /** Return the settings of each of my machines given by the cascade
+     *  settings line LINE.  Lines seen recently are not compiled
+     *  again. */
+    Settings[] compile(String line) {
+        List<String> parts = split(line);
+        if (parts.size() != _machines.length) {
+            throw error("settings line has %d settings for %d machines",
+                        parts.size(), _machines.length);
+        }
+        Settings[] result = new Settings[_machines.length];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = _settings[k].get(parts.get(k));
+        }
+        return result;
+    }
+
+    /** Apply SETTINGS[K] to machine K, for each K. */
+    void apply(Settings[] settings) {
+        for (int k = 0; k < _machines.length; k += 1) {
+            _machines[k].apply(settings[k]);
+        }
+    }
+
+    /** Return the settings lines of the machines in the cascade settings
+     *  line LINE: the parts of LINE starting at each asterisk. */
+    static List<String> split(String line) {
+        List<String> result = new ArrayList<>();
+        int start = line.indexOf('*');
+        if (start < 0 || !line.substring(0, start).trim().isEmpty()) {
+            throw error("settings line must start with '*'");
+        }
+        while (start >= 0) {
+            int end = line.indexOf('*', start + 1);
+            result.add(line.substring(start, end < 0 ? line.length() : end)
+                       .trim());
+            start = end;
+        }
+        return result;
+    }
+
+    /** Return the result of converting the index C through each of my
+     *  machines in turn, advancing each of them first. */
+    int convert(int c) {
+        for (Machine M : _machines) {
+            c = M.convert(c);
+        }
+        return c;
+    }
+
+    /** Convert the first LEN characters of MSG through my machines, as
+     *  by convert(String), storing the result at the start of RESULT,
+     *  and return the number of characters stored. */
+    int convert(char[] msg, int len, char[] result) {
+        long start = _batcher.start();
+        for (Machine M : _machines) {
+            M.engine().startMessage();
+        }
+        int k = 0;
+        for (int i = 0; i < len; i += 1) {
+            char ch = msg[i];
+            if (ch != ' ') {
+                if (!_alphabet.contains(ch)) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                result[k] = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+                k += 1;
+            }
+        }
+        _batcher.end(start, k);
+        return k;
+    }
+
+    /** Returns the encoding/decoding of MSG through each of my machines
+     *  in turn, updating the state of their rotors accordingly. */
+    String convert(String msg) {
+        char[] result = new char[msg.length()];
+        int n = convert(msg.toCharArray(), msg.length(), result);
+        return new String(result, 0, n);
+    }
+
+    /** Record any partly accumulated batch of conversions in the flight
+     *  recorder (see Telemetry). */
+    void flushTelemetry() {
+        _batcher.flush();
+    }
+
+    /** Return true iff A and B have the same characters in the same
+     *  order. */
+    private static boolean sameAlphabet(Alphabet a, Alphabet b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i += 1) {
+            if (a.toChar(i) != b.toChar(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Machines of the cascade, in order. */
+    private final Machine[] _machines;
+
+    /** Common alphabet of _machines. */
+    private final Alphabet _alphabet;
+
+    /** Compiled settings lines for each machine. */
+    private final SettingsCache[] _settings;
+
+    /** Conversion batches for the flight recorder. */
+    private final Telemetry.Batcher _batcher = new Telemetry.Batcher();
+
+}
@@ -0,0 +1,105 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/** The suite of all JUnit tests for Cascade.
+ *  @author Jinho Shin
+ */
+public class CascadeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings of the first machine in the tests. */
+    private static final String FIRST = "* B Beta I II III AAAA (AQ) (EP)";
+
+    /** Settings of the second machine in the tests. */
+    private static final String SECOND = "* B Beta III I II QEVZ (BC)";
+
+    /** Return a cascade of N naval machines. */
+    private static Cascade cascade(int n) {
+        List<Machine> machines = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            machines.add(new MachineTest().navalMachine());
+        }
+        return new Cascade(machines);
+    }
+
+    /** Return the conversion of MSG by a naval machine with settings
+     *  line SETTINGS. */
+    private static String convert(String settings, String msg) {
+        Machine M = new MachineTest().navalMachine();
+        M.apply(Settings.compile(M, settings));
+        return M.convert(msg);
+    }
+
+    @Test
+    public void testTwoMachines() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            msg.append((char) ('A' + (i * 7 + i / 26) % 26));
+            if (i % 37 == 0) {
+                msg.append(' ');
+            }
+        }
+        String expected = convert(SECOND, convert(FIRST, msg.toString()));
+        Cascade C = cascade(2);
+        C.apply(C.compile(FIRST + " " + SECOND));
+        String text = msg.toString();
+        assertEquals(expected, C.convert(text.substring(0, 700))
+                     + C.convert(text.substring(700)));
+
+        assertEquals(FIRST + " " + SECOND,
+                     String.join(" ", Cascade.split("  " + FIRST + SECOND)));
+
+        Cascade D = cascade(2);
+        D.apply(D.compile(SECOND + " " + FIRST));
+        assertEquals(text.replace(" ", ""), D.convert(expected));
+    }
+
+    @Test
+    public void testOneMachine() {
+        Cascade C = cascade(1);
+        C.apply(C.compile(FIRST));
+        assertEquals("IHBDQQMTQZ", C.convert("HELLO WORLD"));
+        assertEquals(1, C.size());
+        assertArrayEquals(new int[] {0, 0, 0, 10},
+                          C.machine(0).positions());
+    }
+
+    @Test
+    public void testWrongSettings() {
+        Cascade C = cascade(2);
+        for (String line : Arrays.asList(FIRST, FIRST + SECOND + FIRST,
+                                         "X " + FIRST + SECOND)) {
+            try {
+                C.compile(line);
+                fail("accepted " + line);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDifferentAlphabets() {
+        Alphabet abc = new Alphabet("ABC");
+        Collection<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation("(AB) (C)", abc)));
+        rotors.add(new MovingRotor("M", new Permutation("(ABC)", abc), "A"));
+        List<Machine> machines = new ArrayList<>();
+        machines.add(new MachineTest().navalMachine());
+        machines.add(new Machine(abc, 2, 1, rotors));
+        new Cascade(machines);
+    }
+
+}
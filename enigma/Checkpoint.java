@@ -0,0 +1,243 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The state of a batch run at the start of an input line: the byte
+ *  offsets of that line in the input and of the corresponding point in
+ *  the output, the settings line in force, and the positions of the
+ *  rotors after the reflector.  Checkpoints are saved as small text
+ *  files, replaced atomically, by a background Saver.
+ *  @author Jinho Shin
+ */
+class Checkpoint {
+
+    /** A checkpoint at input offset INPUT and output offset OUTPUT, under
+     *  settings line SETTINGS (empty if none has been seen), with rotor
+     *  positions POSITIONS. */
+    Checkpoint(long input, long output, String settings, int[] positions) {
+        _input = input;
+        _output = output;
+        _settings = settings;
+        _positions = positions;
+    }
+
+    /** Return the checkpoint saved in the file named NAME, or null if
+     *  there is no such file. */
+    static Checkpoint read(String name) {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(name));
+            if (lines.size() != 5 || !lines.get(0).equals(HEADER)) {
+                throw error("%s is not a checkpoint", name);
+            }
+            String[] words = lines.get(4).trim().split("\\s+");
+            int[] positions = new int[words[0].isEmpty() ? 0 : words.length];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = Integer.parseInt(words[i]);
+            }
+            return new Checkpoint(Long.parseLong(lines.get(1)),
+                                  Long.parseLong(lines.get(2)),
+                                  lines.get(3), positions);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException | NumberFormatException excp) {
+            throw error("could not read checkpoint %s", name);
+        }
+    }
+
+    /** Save me in the file named NAME, replacing it atomically. */
+    void write(String name) throws IOException {
+        Path target = Paths.get(name);
+        Path temp = Paths.get(name + ".tmp");
+        StringBuilder text = new StringBuilder();
+        text.append(HEADER).append('\n').append(_input).append('\n')
+            .append(_output).append('\n').append(_settings).append('\n');
+        for (int p : _positions) {
+            text.append(p).append(' ');
+        }
+        Files.write(temp, text.append('\n').toString().getBytes());
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return the byte offset in the input. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the byte offset in the output. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the settings line in force, or "" if none. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the positions of the rotors after the reflector. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** A thread saving checkpoints in the background.  Only the most
+     *  recent checkpoint offered is saved, so offering never waits. */
+    static class Saver extends Thread {
+
+        /** A saver writing checkpoints to the file named NAME, first
+         *  forcing the output written through CHANNEL, if not null, to
+         *  disk. */
+        Saver(String name, FileChannel channel) {
+            super("Checkpoint-saver");
+            setDaemon(true);
+            _name = name;
+            _channel = channel;
+        }
+
+        /** Arrange for CHECKPOINT to be saved. */
+        void offer(Checkpoint checkpoint) {
+            _latest.set(checkpoint);
+            LockSupport.unpark(this);
+        }
+
+        /** Save any pending checkpoint and stop, reporting any error
+         *  that prevented a save. */
+        void finish() {
+            _done = true;
+            LockSupport.unpark(this);
+            try {
+                join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            if (_failure != null) {
+                throw error("could not save checkpoint %s", _name);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean last = _done;
+                Checkpoint checkpoint = _latest.getAndSet(null);
+                if (checkpoint != null) {
+                    try {
+                        if (_channel != null) {
+                            _channel.force(false);
+                        }
+                        checkpoint.write(_name);
+                    } catch (IOException excp) {
+                        _failure = excp;
+                    }
+                } else if (last) {
+                    return;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        /** Name of the checkpoint file. */
+        private final String _name;
+
+        /** Channel of the output file, or null. */
+        private final FileChannel _channel;
+
+        /** Most recent unsaved checkpoint, or null. */
+        private final AtomicReference<Checkpoint> _latest =
+            new AtomicReference<>();
+
+        /** True once no more checkpoints will be offered. */
+        private volatile boolean _done;
+
+        /** Error from the last failed save, or null. */
+        private volatile IOException _failure;
+    }
+
+    /** An output stream counting the bytes written through it. */
+    static class CountingStream extends FilterOutputStream {
+
+        /** A stream writing to OUT, which has already received START
+         *  bytes, and which writes to the file with channel CHANNEL. */
+        CountingStream(OutputStream out, long start, FileChannel channel) {
+            super(out);
+            _count = start;
+            _channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Return the number of bytes written. */
+        long count() {
+            return _count;
+        }
+
+        /** Return the channel of the file I write. */
+        FileChannel channel() {
+            return _channel;
+        }
+
+        /** Number of bytes written. */
+        private long _count;
+
+        /** Channel of the file I write. */
+        private final FileChannel _channel;
+    }
+
+    /** Return a counting stream appending to the file named NAME after
+     *  truncating it to START bytes. */
+    static CountingStream openOutput(String name, long start) {
+        try {
+            FileOutputStream file = new FileOutputStream(name, true);
+            FileChannel channel = file.getChannel();
+            if (channel.size() < start) {
+                throw error("%s is shorter than its checkpoint", name);
+            }
+            channel.truncate(start);
+            return new CountingStream(new BufferedOutputStream(file, 1 << 16),
+                                      start, channel);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** First line of a checkpoint file. */
+    static final String HEADER = "enigma-checkpoint 1";
+
+    /** Input offset. */
+    private final long _input;
+
+    /** Output offset. */
+    private final long _output;
+
+    /** Settings line. */
+    private final String _settings;
+
+    /** Rotor positions. */
+    private final int[] _positions;
+
+}
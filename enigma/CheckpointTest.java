@@ -0,0 +1,95 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** The suite of all JUnit tests for Checkpoint, LineInput and Main's
+ *  checkpointed runs.
+ *  @author Jinho Shin
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testLineOffsets() throws IOException {
+        LineInput in = new LineInput(
+            new ByteArrayInputStream("* A\r\nBC\rD\n\nEF".getBytes()), 10);
+        assertEquals("* A", in.readLine());
+        assertEquals(15, in.offset());
+        assertEquals("BC", in.readLine());
+        assertEquals(18, in.offset());
+        assertEquals("D", in.readLine());
+        assertEquals("", in.readLine());
+        assertEquals(21, in.offset());
+        assertEquals("EF", in.readLine());
+        assertEquals(23, in.offset());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void testSaveAndRead() throws IOException {
+        File f = File.createTempFile("enigma", ".ckpt");
+        f.deleteOnExit();
+        Checkpoint.Saver saver = new Checkpoint.Saver(f.getPath(), null);
+        saver.start();
+        saver.offer(new Checkpoint(1, 2, "* B", new int[] {0, 1}));
+        saver.offer(new Checkpoint(100, 80, "* B Beta I II III AAAA (AQ)",
+                                   new int[] {0, 3, 25, 7}));
+        saver.finish();
+        Checkpoint c = Checkpoint.read(f.getPath());
+        assertEquals(100, c.input());
+        assertEquals(80, c.output());
+        assertEquals("* B Beta I II III AAAA (AQ)", c.settings());
+        assertArrayEquals(new int[] {0, 3, 25, 7}, c.positions());
+        assertNull(Checkpoint.read(f.getPath() + ".missing"));
+    }
+
+    @Test
+    public void testStopAndResume() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("config"), full = dir.resolve("full.in"),
+            part = dir.resolve("part.in"), expected = dir.resolve("expected"),
+            out = dir.resolve("out"), ckpt = dir.resolve("ckpt");
+        Files.write(config, ("ABCDEF 3 2\nRF R (AB) (CD) (EF)\n"
+                             + "R1 MA (BCD) (EFA)\nR2 MC\n").getBytes());
+        String[] settings = { "* RF R1 R2 AB (AF)", "* RF R2 R1 CD" };
+        StringBuilder input = new StringBuilder();
+        int stop = 0;
+        for (int i = 0; i < 200; i += 1) {
+            if (i % 30 == 0) {
+                input.append(settings[i / 30 % 2]).append('\n');
+            }
+            if (i == 125) {
+                stop = input.length();
+            }
+            input.append("ABCDEF ABC".substring(0, 1 + i % 10)).append('\n');
+        }
+        Files.write(full, input.toString().getBytes());
+        Files.write(part, input.substring(0, stop).getBytes());
+
+        Main.main(config.toString(), full.toString(), expected.toString());
+        Main.main("--checkpoint", ckpt.toString(), config.toString(),
+                  part.toString(), out.toString());
+        Files.write(out, "LOST OUTPUT\n".getBytes(),
+                    StandardOpenOption.APPEND);
+        Main.main("--checkpoint", ckpt.toString(), "--resume",
+                  config.toString(), full.toString(), out.toString());
+        assertArrayEquals(Files.readAllBytes(expected),
+                          Files.readAllBytes(out));
+        assertEquals(input.length(),
+                     Checkpoint.read(ckpt.toString()).input());
+    }
+
+}
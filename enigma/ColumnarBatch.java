@@ -0,0 +1,142 @@
+package enigma;
+
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Conversion of many (settings line, message) pairs at once, given in
+ *  columns: one settings line per pair, and the messages concatenated
+ *  into one character array, with an array of offsets marking where
+ *  each begins.  Each message is converted afresh under its settings,
+ *  skipping blanks, as Machine.convert(String) would after applying
+ *  them, into one output array, with its own offsets.  Each distinct
+ *  settings line is compiled once per batch, and pairs are converted
+ *  in groups with the same rotor order, so that the compiled rotors of
+ *  each group are used together.
+ *  @author Jinho Shin
+ */
+class ColumnarBatch {
+
+    /** A batch converter using the rotors available to M, which is not
+     *  itself changed. */
+    ColumnarBatch(Machine M) {
+        _config = new CompiledConfig(M);
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+    }
+
+    /** Convert each pair K of SETTINGS[K] and the message
+     *  TEXT[OFFSETS[K] .. OFFSETS[K+1]-1], storing its conversion in
+     *  OUT[OUTOFFSETS[K] .. OUTOFFSETS[K+1]-1].  OFFSETS must have one
+     *  more element than SETTINGS, and OUTOFFSETS as many as OFFSETS;
+     *  OUT must have room for all the non-blank characters of the
+     *  messages (TEXT.length always suffices).  Returns the total number
+     *  of characters stored. */
+    int convert(String[] settings, char[] text, int[] offsets, char[] out,
+                int[] outOffsets) {
+        int count = settings.length;
+        if (offsets.length != count + 1 || outOffsets.length != count + 1) {
+            throw error("wrong number of offsets");
+        }
+        Alphabet alpha = _config.alphabet();
+        outOffsets[0] = 0;
+        for (int k = 0; k < count; k += 1) {
+            int len = 0;
+            for (int i = offsets[k]; i < offsets[k + 1]; i += 1) {
+                char c = text[i];
+                if (c != ' ') {
+                    if (!alpha.contains(c)) {
+                        throw error("pair %d: character %c not in alphabet",
+                                    k, c);
+                    }
+                    len += 1;
+                }
+            }
+            outOffsets[k + 1] = outOffsets[k] + len;
+        }
+        if (out.length < outOffsets[count]) {
+            throw error("output buffer too small");
+        }
+
+        Settings[] compiled = new Settings[count];
+        int[] group = new int[count];
+        int groups = compile(settings, compiled, group);
+        int[] start = new int[groups + 1];
+        for (int k = 0; k < count; k += 1) {
+            start[group[k] + 1] += 1;
+        }
+        for (int g = 0; g < groups; g += 1) {
+            start[g + 1] += start[g];
+        }
+        int[] members = new int[count];
+        for (int k = 0; k < count; k += 1) {
+            members[start[group[k]]] = k;
+            start[group[k]] += 1;
+        }
+
+        int n = _config.numRotors();
+        int[] order = new int[n];
+        int[] pos = new int[n - 1];
+        for (int m = 0, g = -1; m < count; m += 1) {
+            int k = members[m];
+            Settings s = compiled[k];
+            if (group[k] != g) {
+                g = group[k];
+                _config.order(s, order, 0);
+            }
+            System.arraycopy(s.positions(), 0, pos, 0, n - 1);
+            int[] plug = s.plugboard();
+            int o = outOffsets[k];
+            for (int i = offsets[k]; i < offsets[k + 1]; i += 1) {
+                char c = text[i];
+                if (c != ' ') {
+                    _config.step(order, 0, pos, 0);
+                    int e = _config.scramble(order, 0, pos, 0,
+                                             plug[alpha.toInt(c)]);
+                    out[o] = alpha.toChar(plug[e]);
+                    o += 1;
+                }
+            }
+        }
+        return outOffsets[count];
+    }
+
+    /** Store in COMPILED[K] the compilation of SETTINGS[K], and in
+     *  GROUP[K] the number of its rotor order, numbering the orders from
+     *  0 in order of appearance.  Return the number of orders. */
+    private int compile(String[] settings, Settings[] compiled,
+                        int[] group) {
+        HashMap<String, Settings> lines = new HashMap<>();
+        HashMap<Settings, Integer> groupOf = new HashMap<>();
+        HashMap<String, Integer> orders = new HashMap<>();
+        for (int k = 0; k < settings.length; k += 1) {
+            Settings s = lines.get(settings[k]);
+            if (s == null) {
+                s = _settings.get(settings[k]);
+                lines.put(settings[k], s);
+            }
+            compiled[k] = s;
+            Integer g = groupOf.get(s);
+            if (g == null) {
+                StringBuilder key = new StringBuilder();
+                for (Rotor r : s.rotors()) {
+                    key.append(r.name()).append(' ');
+                }
+                g = orders.get(key.toString());
+                if (g == null) {
+                    g = orders.size();
+                    orders.put(key.toString(), g);
+                }
+                groupOf.put(s, g);
+            }
+            group[k] = g;
+        }
+        return orders.size();
+    }
+
+    /** Compiled rotors of the machine. */
+    private final CompiledConfig _config;
+
+    /** Compiled settings lines. */
+    private final SettingsCache _settings;
+
+}
@@ -0,0 +1,176 @@
+package enigma;
+
+/** The rotors of a machine compiled into plain arrays, shared by
+ *  conversions that keep their own state.  Rotors are identified by
+ *  their numbers in the machine's RotorRegistry.  A rotor order is an
+ *  array of numRotors() rotor numbers, reflector first, and a state is
+ *  an array of numRotors()-1 positions for the rotors after the
+ *  reflector.  Orders and states may be stored at any offset within
+ *  larger arrays, so that many of them can be packed together.
+ *  @author Jinho Shin
+ */
+class CompiledConfig {
+
+    /** The compiled form of the rotors available to M. */
+    CompiledConfig(Machine M) {
+        RotorRegistry registry = M.registry();
+        _alphabet = M.alphabet();
+        _size = _alphabet.size();
+        _numRotors = M.numRotors();
+        _numPawls = M.numPawls();
+        int count = registry.size();
+        _names = new String[count];
+        _forward = new int[count][];
+        _backward = new int[count][];
+        _notch = new boolean[count][];
+        _moving = new boolean[count];
+        for (int r = 0; r < count; r += 1) {
+            Rotor rotor = registry.get(r);
+            Permutation perm = rotor.permutation();
+            _names[r] = rotor.name();
+            _forward[r] = new int[_size];
+            _backward[r] = new int[_size];
+            _notch[r] = new boolean[_size];
+            for (int i = 0; i < _size; i += 1) {
+                _forward[r][i] = perm.permute(i);
+                _backward[r][i] = perm.invert(i);
+                _notch[r][i] = rotor.notchAt(i);
+            }
+            _moving[r] = rotor.rotates();
+        }
+        _registry = registry;
+    }
+
+    /** Return the alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the number of the rotor named NAME, or -1 if none. */
+    int rotor(String name) {
+        return _registry.indexOf(name);
+    }
+
+    /** Return the name of rotor number R. */
+    String name(int r) {
+        return _names[r];
+    }
+
+    /** Return true iff rotor number R moves. */
+    boolean moving(int r) {
+        return _moving[r];
+    }
+
+    /** Return true iff rotor number R has a notch at position P. */
+    boolean notch(int r, int p) {
+        return _notch[r][p];
+    }
+
+    /** Return the conversion of P by rotor number R at setting 0. */
+    int forward(int r, int p) {
+        return _forward[r][p];
+    }
+
+    /** Return the inverse conversion of E by rotor number R at setting
+     *  0. */
+    int backward(int r, int e) {
+        return _backward[r][e];
+    }
+
+    /** Store in ORDER[OFF .. OFF+numRotors()-1] the numbers of the
+     *  rotors in SETTINGS. */
+    void order(Settings settings, int[] order, int off) {
+        Rotor[] rotors = settings.rotors();
+        for (int i = 0; i < _numRotors; i += 1) {
+            order[off + i] = _registry.indexOf(rotors[i].name());
+        }
+    }
+
+    /** Advance the state at POS[PBASE ..] of the rotors whose order is
+     *  at ORDER[OBASE ..], exactly as Machine.convert does before
+     *  converting a character. */
+    void step(int[] order, int obase, int[] pos, int pbase) {
+        int last = _numRotors - 1;
+        for (int i = 1; i < last; i += 1) {
+            int r = order[obase + i];
+            if (!_moving[r]) {
+                continue;
+            }
+            int p = pos[pbase + i - 1];
+            if (_notch[order[obase + i + 1]][pos[pbase + i]]
+                || _notch[r][p] && _moving[order[obase + i - 1]]) {
+                pos[pbase + i - 1] = p + 1 == _size ? 0 : p + 1;
+            }
+        }
+        if (_moving[order[obase + last]]) {
+            int p = pos[pbase + last - 1];
+            pos[pbase + last - 1] = p + 1 == _size ? 0 : p + 1;
+        }
+    }
+
+    /** Return the result of passing C through the rotors whose order is
+     *  at ORDER[OBASE ..] in the state at POS[PBASE ..], without the
+     *  plugboard, as Machine.scramble does. */
+    int scramble(int[] order, int obase, int[] pos, int pbase, int c) {
+        int n = _size;
+        for (int i = _numRotors - 1; i > 0; i -= 1) {
+            int s = pos[pbase + i - 1];
+            int t = c + s;
+            c = _forward[order[obase + i]][t >= n ? t - n : t] - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        c = _backward[order[obase]][c];
+        for (int i = 1; i < _numRotors; i += 1) {
+            int s = pos[pbase + i - 1];
+            int t = c + s;
+            c = _backward[order[obase + i]][t >= n ? t - n : t] - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        return c;
+    }
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Registry numbering the rotors. */
+    private final RotorRegistry _registry;
+
+    /** Name of each rotor. */
+    private final String[] _names;
+
+    /** Forward permutation of each rotor at setting 0. */
+    private final int[][] _forward;
+
+    /** Inverse permutation of each rotor at setting 0. */
+    private final int[][] _backward;
+
+    /** Notch positions of each rotor. */
+    private final boolean[][] _notch;
+
+    /** True for each moving rotor. */
+    private final boolean[] _moving;
+
+}
@@ -0,0 +1,81 @@
+package enigma;
+
+/** An engine using the rotors of a machine compiled into plain arrays
+ *  (see CompiledConfig), with the rotor positions kept in an array of
+ *  its own.
+ *  @author Jinho Shin
+ */
+class CompiledEngine implements Engine {
+
+    /** An engine for the rotors available to M. */
+    CompiledEngine(Machine M) {
+        _config = new CompiledConfig(M);
+        _order = new int[M.numRotors()];
+        _pos = new int[M.numRotors() - 1];
+    }
+
+    @Override
+    public String name() {
+        return "compiled";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        for (int i = 0; i < _order.length; i += 1) {
+            _order[i] = _config.rotor(rotors[i].name());
+        }
+        for (int i = 1; i < _order.length; i += 1) {
+            _pos[i - 1] = rotors[i].setting();
+        }
+    }
+
+    @Override
+    public void store(Rotor[] rotors) {
+        for (int i = 1; i < _order.length; i += 1) {
+            rotors[i].set(_pos[i - 1]);
+        }
+    }
+
+    @Override
+    public int convert(int c) {
+        step();
+        return scramble(c);
+    }
+
+    /** Advance the rotors. */
+    void step() {
+        _config.step(_order, 0, _pos, 0);
+    }
+
+    /** Return the result of passing C through the rotors at their
+     *  current positions. */
+    int scramble(int c) {
+        return _config.scramble(_order, 0, _pos, 0, c);
+    }
+
+    /** Return the position of rotor I, counting the reflector as 0. */
+    int position(int i) {
+        return _pos[i - 1];
+    }
+
+    /** Return the number of the rotor in slot I, counting the reflector
+     *  as 0. */
+    int rotor(int i) {
+        return _order[i];
+    }
+
+    /** Return my compiled rotors. */
+    CompiledConfig config() {
+        return _config;
+    }
+
+    /** Compiled rotors. */
+    private final CompiledConfig _config;
+
+    /** Numbers of the loaded rotors, reflector first. */
+    private final int[] _order;
+
+    /** Positions of the rotors after the reflector. */
+    private final int[] _pos;
+
+}
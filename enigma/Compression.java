@@ -0,0 +1,235 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static enigma.EnigmaException.*;
+
+/** Transparent compression of message streams.  Inputs in gzip or zlib
+ *  (deflate) format are recognized by their first two bytes (for zlib,
+ *  the four headers written with the usual 32K window: 0x78, which is
+ *  'x', followed by 0x01, 0x5e ('^'), 0x9c or 0xda; since every input
+ *  must start with a settings line, whose first non-blank character is
+ *  '*', no valid plain input starts with any of them) and decompressed
+ *  by a separate thread, which keeps a few large chunks ready, so that
+ *  conversion overlaps decompression.
+ *  @author Jinho Shin
+ */
+class Compression {
+
+    /** Return true iff the buffered stream IN starts with a gzip or zlib
+     *  header.  IN is not advanced. */
+    static boolean compressed(BufferedInputStream in) throws IOException {
+        return format(in) != PLAIN;
+    }
+
+    /** Return a stream reading the contents of IN, decompressing them if
+     *  they are compressed. */
+    static InputStream decompress(InputStream in) {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in, BUFFER);
+            switch (format(buffered)) {
+            case GZIP:
+                return new ReadAhead(new GZIPInputStream(buffered, BUFFER));
+            case ZLIB:
+                return new ReadAhead(new InflaterInputStream(buffered));
+            default:
+                return buffered;
+            }
+        } catch (IOException excp) {
+            throw error("could not read compressed input");
+        }
+    }
+
+    /** Return a stream writing gzip-compressed data to OUT.  It must be
+     *  closed to complete the data. */
+    static OutputStream compress(OutputStream out) {
+        try {
+            return new GZIPOutputStream(new BufferedOutputStream(out, BUFFER),
+                                        BUFFER);
+        } catch (IOException excp) {
+            throw error("could not write compressed output");
+        }
+    }
+
+    /** Return the format of the data at the start of IN, which is not
+     *  advanced. */
+    private static int format(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int b0 = in.read(), b1 = in.read();
+        in.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            return GZIP;
+        } else if (b0 == 0x78
+                   && (b1 == 0x01 || b1 == 0x5e || b1 == 0x9c
+                       || b1 == 0xda)) {
+            return ZLIB;
+        }
+        return PLAIN;
+    }
+
+    /** A stream whose contents are read from another stream in advance
+     *  by a separate thread.  Closing it closes the other stream and ends
+     *  the thread, even if not all the contents have been read. */
+    static class ReadAhead extends InputStream implements Runnable {
+
+        /** A stream reading the contents of IN in advance. */
+        ReadAhead(InputStream in) {
+            _in = in;
+            _reader = new Thread(this, "Decompressor");
+            _reader.setDaemon(true);
+            _reader.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    while (true) {
+                        byte[] chunk = new byte[BUFFER];
+                        int len = 0;
+                        while (len < chunk.length) {
+                            int n = _in.read(chunk, len, chunk.length - len);
+                            if (n < 0) {
+                                break;
+                            }
+                            len += n;
+                        }
+                        if (len == 0) {
+                            break;
+                        }
+                        _chunks.put(new Chunk(chunk, len));
+                    }
+                } catch (IOException excp) {
+                    _failure = excp;
+                } catch (RuntimeException excp) {
+                    _failure = new IOException(excp);
+                }
+                _chunks.put(new Chunk(null, 0));
+            } catch (InterruptedException excp) {
+                return;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            int result = _chunk.data[_pos] & 0xff;
+            _pos += 1;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, _chunk.length - _pos);
+            System.arraycopy(_chunk.data, _pos, b, off, n);
+            _pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return _chunk == null ? 0 : _chunk.length - _pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            _reader.interrupt();
+            _chunks.clear();
+            _chunk = null;
+            _in.close();
+        }
+
+        /** Make sure that _chunk has unread data, returning false at the
+         *  end of the input. */
+        private boolean fill() throws IOException {
+            if (_closed) {
+                throw new IOException("stream closed");
+            }
+            while (_chunk == null || _pos == _chunk.length) {
+                if (_chunk != null && _chunk.data == null) {
+                    return false;
+                }
+                try {
+                    _chunk = _chunks.take();
+                } catch (InterruptedException excp) {
+                    throw new IOException("interrupted");
+                }
+                _pos = 0;
+                if (_chunk.data == null) {
+                    if (_failure != null) {
+                        throw _failure;
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** A block of decompressed data, or, if DATA is null, the end of
+         *  the input. */
+        private static class Chunk {
+            /** The first LENGTH bytes of DATA. */
+            Chunk(byte[] data, int length) {
+                this.data = data;
+                this.length = length;
+            }
+
+            /** Bytes of the chunk. */
+            final byte[] data;
+            /** Number of valid bytes. */
+            final int length;
+        }
+
+        /** Number of chunks read in advance. */
+        private static final int DEPTH = 4;
+
+        /** Underlying stream. */
+        private final InputStream _in;
+
+        /** Thread reading _in. */
+        private final Thread _reader;
+
+        /** Chunks read but not yet consumed. */
+        private final BlockingQueue<Chunk> _chunks =
+            new ArrayBlockingQueue<>(DEPTH);
+
+        /** Chunk being consumed, or null. */
+        private Chunk _chunk;
+
+        /** Position of the next unread byte in _chunk. */
+        private int _pos;
+
+        /** Error from the underlying stream, or null. */
+        private volatile IOException _failure;
+
+        /** True once I have been closed. */
+        private volatile boolean _closed;
+    }
+
+    /** Size of buffers and chunks. */
+    static final int BUFFER = 1 << 18;
+
+    /** Formats of input data. */
+    private static final int PLAIN = 0, GZIP = 1, ZLIB = 2;
+
+}
@@ -0,0 +1,130 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/** The suite of all JUnit tests for Compression.
+ *  @author Jinho Shin
+ */
+public class CompressionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a message of about LEN bytes. */
+    private static byte[] text(int len) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; result.length() < len; i += 1) {
+            result.append("* B Beta I II III AAAA\nHELLO WORLD ")
+                .append(i).append('\n');
+        }
+        return result.toString().getBytes();
+    }
+
+    /** Return the whole contents of IN. */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    @Test
+    public void testPlain() throws IOException {
+        byte[] data = text(1000);
+        assertArrayEquals(data, readAll(Compression.decompress(
+                              new ByteArrayInputStream(data))));
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws IOException {
+        byte[] data = text(3 * Compression.BUFFER);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Compression.compress(bytes);
+        out.write(data);
+        out.close();
+        InputStream in = Compression.decompress(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(in instanceof Compression.ReadAhead);
+        assertArrayEquals(data, readAll(in));
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        byte[] data = text(10000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(bytes);
+        out.write(data);
+        out.close();
+        assertArrayEquals(data, readAll(Compression.decompress(
+                              new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    /** Return the number of live decompressor threads. */
+    private static int decompressors() {
+        int result = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("Decompressor") && t.isAlive()) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testEarlyClose() throws IOException, InterruptedException {
+        byte[] data = text(20 * Compression.BUFFER);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Compression.compress(bytes);
+        out.write(data);
+        out.close();
+        int before = decompressors();
+        boolean[] closed = new boolean[1];
+        for (int k = 0; k < 5; k += 1) {
+            InputStream in = Compression.decompress(
+                new ByteArrayInputStream(bytes.toByteArray()) {
+                    @Override
+                    public void close() {
+                        closed[0] = true;
+                    }
+                });
+            assertEquals(data[0], in.read());
+            closed[0] = false;
+            in.close();
+            assertTrue(closed[0]);
+            try {
+                in.read();
+                fail("read after close");
+            } catch (IOException excp) {
+                /* Expected. */
+            }
+        }
+        while (decompressors() > before) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testCorrupt() {
+        byte[] data = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3};
+        try {
+            readAll(Compression.decompress(new ByteArrayInputStream(data)));
+            fail("corrupt input was read");
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static enigma.EnigmaException.*;
+
+/** A reader of machine configurations.  The configuration text is split
+ *  into whitespace-separated tokens in a single pass, without regular
+ *  expressions, and errors are reported with the line and column of the
+ *  offending token.
+ *  @author Jinho Shin
+ */
+class ConfigReader {
+
+    /** A reader for the configuration TEXT. */
+    ConfigReader(String text) {
+        _text = text;
+        _line = 1;
+        _lineStart = 0;
+    }
+
+    /** Return a reader for the configuration in the file named NAME. */
+    static ConfigReader open(String name) {
+        try {
+            return new ConfigReader(new String(Files.readAllBytes(
+                                                   Paths.get(name))));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return an Enigma machine configured from my text. */
+    Machine read() {
+        String chars = next("alphabet");
+        for (int i = 0; i < chars.length(); i += 1) {
+            char c = chars.charAt(i);
+            if (c == '*' || c == '(' || c == ')') {
+                throw errorAtToken("wrong format for Alphabets.");
+            }
+        }
+        _alphabet = new Alphabet(chars);
+        int numRotors = nextInt("number of rotors");
+        int pawls = nextInt("number of pawls");
+        if (pawls >= numRotors || pawls < 0) {
+            throw errorAtToken("inappropriate numbers");
+        }
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        HashSet<String> names = new HashSet<>();
+        skipWhitespace();
+        while (_pos < _text.length()) {
+            Rotor r = readRotor();
+            if (!names.add(r.name())) {
+                throw error("config line %d: duplicate rotor %s",
+                            _nameLine, r.name());
+            }
+            rotors.add(r);
+            skipWhitespace();
+        }
+        return new Machine(_alphabet, numRotors, pawls, rotors);
+    }
+
+    /** Return a rotor, reading its description from my text. */
+    private Rotor readRotor() {
+        String name = next("rotor name");
+        _nameLine = _tokenLine;
+        if (name.charAt(0) == '(' || name.indexOf(')') >= 0) {
+            throw errorAtToken("wrong format for name.");
+        }
+        String info = next("rotor type");
+        char type = info.charAt(0);
+        String notches = "";
+        if (info.length() > 1) {
+            if (type != 'M') {
+                throw errorAtToken("can't have notches on non-moving");
+            }
+            notches = info.substring(1);
+        }
+        if (type != 'M' && type != 'N' && type != 'R') {
+            throw errorAtToken("wrong type of rotor");
+        }
+        StringBuilder cycles = new StringBuilder();
+        int cycleLine = _line, cycleColumn = column();
+        skipWhitespace();
+        while (_pos < _text.length() && _text.charAt(_pos) == '(') {
+            if (cycles.length() == 0) {
+                cycleLine = _line;
+                cycleColumn = column();
+            }
+            String cycle = next("cycle");
+            if (cycle.charAt(cycle.length() - 1) != ')') {
+                throw errorAtToken("unterminated cycle");
+            }
+            cycles.append(cycle);
+            skipWhitespace();
+        }
+        Permutation perm;
+        try {
+            perm = new Permutation(cycles.toString(), _alphabet);
+        } catch (EnigmaException excp) {
+            throw error("config line %d, column %d: %s", cycleLine,
+                        cycleColumn, excp.getMessage());
+        }
+        if (type == 'M') {
+            return new MovingRotor(name, perm, notches);
+        } else if (type == 'N') {
+            return new FixedRotor(name, perm);
+        } else {
+            return new Reflector(name, perm);
+        }
+    }
+
+    /** Skip whitespace, keeping track of line numbers. */
+    private void skipWhitespace() {
+        while (_pos < _text.length()) {
+            char c = _text.charAt(_pos);
+            if (c == '\n') {
+                _line += 1;
+                _lineStart = _pos + 1;
+            } else if (!Character.isWhitespace(c)) {
+                break;
+            }
+            _pos += 1;
+        }
+    }
+
+    /** Return the next token, which is described as WHAT in the error
+     *  reported if there is none. */
+    private String next(String what) {
+        skipWhitespace();
+        if (_pos >= _text.length()) {
+            throw error("config line %d: configuration file truncated; "
+                        + "expected %s", _line, what);
+        }
+        _tokenLine = _line;
+        _tokenColumn = column();
+        int start = _pos;
+        while (_pos < _text.length()
+               && !Character.isWhitespace(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+        return _text.substring(start, _pos);
+    }
+
+    /** Return the next token as an integer, described as WHAT in error
+     *  messages. */
+    private int nextInt(String what) {
+        String token = next(what);
+        int result = 0;
+        for (int i = 0; i < token.length(); i += 1) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9' || i > 8) {
+                throw errorAtToken("bad %s: %s", what, token);
+            }
+            result = 10 * result + (c - '0');
+        }
+        return result;
+    }
+
+    /** Return the 1-based column of the current position. */
+    private int column() {
+        return _pos - _lineStart + 1;
+    }
+
+    /** Return an error whose message is formed from MSGFORMAT and ARGS
+     *  as for String.format, prefixed by the position of the last
+     *  token read. */
+    private EnigmaException errorAtToken(String msgFormat, Object... args) {
+        return error("config line %d, column %d: %s", _tokenLine,
+                     _tokenColumn, String.format(msgFormat, args));
+    }
+
+    /** Configuration text. */
+    private final String _text;
+
+    /** Current position in _text. */
+    private int _pos;
+
+    /** Current line number. */
+    private int _line;
+
+    /** Position in _text of the start of the current line. */
+    private int _lineStart;
+
+    /** Line of the last token read. */
+    private int _tokenLine;
+
+    /** Column of the last token read. */
+    private int _tokenColumn;
+
+    /** Line of the name of the rotor being read. */
+    private int _nameLine;
+
+    /** Alphabet of the configuration. */
+    private Alphabet _alphabet;
+
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for ConfigReader and RotorRegistry.
+ *  @author Jinho Shin
+ */
+public class ConfigReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the message of the error reported when reading CONFIG. */
+    private String errorFor(String config) {
+        try {
+            new ConfigReader(config).read();
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+        fail("no error reported for " + config);
+        return null;
+    }
+
+    @Test
+    public void testRead() {
+        Machine m = new ConfigReader("ABCDEF\n 3 2\n"
+                                     + "RF R (AB) (CD)(EF)\n"
+                                     + "R1 MA (BCD) (EFA)\nR2 MC\n").read();
+        assertEquals(3, m.numRotors());
+        assertEquals(2, m.numPawls());
+        assertTrue(m.hasRotor("R2"));
+        assertTrue(m.hasRotor(new String("R1")));
+        assertFalse(m.hasRotor("R3"));
+        m.insertRotors(new String[] {"RF", "R1", "R2"});
+        m.setRotors("AA");
+        assertEquals("ECAED", m.convert("ABCDE"));
+    }
+
+    @Test
+    public void testErrorPositions() {
+        assertEquals("config line 2, column 4: bad number of pawls: x",
+                     errorFor("ABC\n 3 x\n"));
+        assertEquals("config line 3, column 5: wrong type of rotor",
+                     errorFor("ABC 2 1\nR R (AB)\nM1  Q (ABC)\n"));
+        assertEquals("config line 2, column 5: character D not in alphabet",
+                     errorFor("ABC 2 1\nR R (AD)\nM1 MA (ABC)\n"));
+        assertEquals("config line 3: duplicate rotor R",
+                     errorFor("ABC 2 1\nR R (AB)\nR MA (ABC)\n"));
+    }
+
+    @Test
+    public void testLargeConfig() {
+        StringBuilder config = new StringBuilder();
+        StringBuilder alpha = new StringBuilder();
+        for (char c = 0x100; c < 0x100 + 1000; c += 1) {
+            alpha.append(c);
+        }
+        config.append(alpha).append(" 5 3\nR R\n");
+        for (int i = 0; i < 5000; i += 1) {
+            config.append("M").append(i).append(" M")
+                .append(alpha.charAt(i % 1000)).append(" (")
+                .append(alpha, i % 997, i % 997 + 3).append(")\n");
+        }
+        Machine m = new ConfigReader(config.toString()).read();
+        assertTrue(m.hasRotor("M4999"));
+        assertEquals(1000, m.alphabet().size());
+    }
+
+}
@@ -0,0 +1,32 @@
+package enigma;
+
+/** The part of a Machine that advances its rotors and passes characters
+ *  through them.  The Machine owns the rotors and the plugboard; an
+ *  Engine may keep the rotor positions in whatever form it likes, as
+ *  long as it takes them from the rotors in load and puts them back in
+ *  store.  Every engine must produce exactly the results of
+ *  ReferenceEngine, which works directly on the Rotors.
+ *  @author Jinho Shin
+ */
+interface Engine {
+
+    /** Return my name, as accepted by Machine.useEngine. */
+    String name();
+
+    /** Take the rotors to use, reflector first, and their current
+     *  settings from ROTORS. */
+    void load(Rotor[] rotors);
+
+    /** Set the settings of ROTORS, as last given to load, to my current
+     *  positions. */
+    void store(Rotor[] rotors);
+
+    /** Return the result of passing C (an alphabet index) through the
+     *  rotors, without the plugboard, after first advancing them. */
+    int convert(int c);
+
+    /** Note that a new message begins with the next character. */
+    default void startMessage() {
+    }
+
+}
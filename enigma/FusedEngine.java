@@ -0,0 +1,162 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A shifted engine that fuses all the rotors and the reflector into
+ *  one table for each rotor order and setting of the non-moving rotors,
+ *  giving the conversion of every character at every combination of
+ *  moving-rotor positions, laid out as in a TableStore.  Tables are
+ *  built in memory rather than read from a file: the table for a
+ *  configuration is built once it has converted a quarter as many
+ *  characters as the table has entries, so that short-lived settings
+ *  never pay for one (until then, conversions go through the shifted
+ *  tables), and the most recently used tables are kept within a memory
+ *  budget.
+ *  @author Jinho Shin
+ */
+class FusedEngine extends ShiftedEngine {
+
+    /** An engine for the rotors available to M, keeping at most BUDGET
+     *  bytes of fused and shifted tables together (but always at least
+     *  one fused table, and the shifted tables of the rotors loaded). */
+    FusedEngine(Machine M, long budget) {
+        super(M, ShiftedEngine.bytes(M.alphabet().size(), M.numRotors()));
+        _size = M.alphabet().size();
+        _numRotors = M.numRotors();
+        _firstMoving = M.numRotors() - M.numPawls();
+        long bytes = bytes(_size, M.numPawls());
+        if (bytes / 2 > Integer.MAX_VALUE) {
+            throw error("alphabet too large for engine fused");
+        }
+        _entries = (int) (bytes / 2);
+        long rest = budget - ShiftedEngine.bytes(_size, _numRotors);
+        int capacity = (int) Math.max(1, Math.min(rest / bytes, MAX_TABLES));
+        _tables = new LinkedHashMap<String, char[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, char[]> e) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return "fused";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        super.load(rotors);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < _numRotors; i += 1) {
+            key.append(rotor(i)).append(i < _firstMoving ? ':' : ' ');
+            if (i > 0 && i < _firstMoving) {
+                key.append(position(i)).append(' ');
+            }
+        }
+        String newKey = key.toString();
+        if (!newKey.equals(_key)) {
+            _key = newKey;
+            _table = _tables.get(_key);
+            _uses = 0;
+        }
+    }
+
+    @Override
+    public int convert(int c) {
+        if (_table == null) {
+            _uses += 1;
+            if (_uses < _entries / BUILD_FRACTION) {
+                return super.convert(c);
+            }
+            build();
+        }
+        step();
+        int k = 0;
+        for (int i = _firstMoving; i < _numRotors; i += 1) {
+            k = k * _size + position(i);
+        }
+        return _table[k * _size + c];
+    }
+
+    /** Return the number of fused tables kept. */
+    @Override
+    int tables() {
+        return _tables.size();
+    }
+
+    /** Return the number of bytes in a table for an alphabet of size N
+     *  and PAWLS moving rotors. */
+    static long bytes(int n, int pawls) {
+        long result = 2L * n;
+        for (int i = 0; i < pawls; i += 1) {
+            if (result > Long.MAX_VALUE / n) {
+                return Long.MAX_VALUE;
+            }
+            result *= n;
+        }
+        return result;
+    }
+
+    /** Build the table for the loaded configuration. */
+    private void build() {
+        CompiledConfig config = config();
+        int n = _size;
+        int[] order = new int[_numRotors];
+        int[] pos = new int[_numRotors - 1];
+        for (int i = 0; i < _numRotors; i += 1) {
+            order[i] = rotor(i);
+            if (i > 0) {
+                pos[i - 1] = position(i);
+            }
+        }
+        char[] table = new char[_entries];
+        for (int k = 0; k < _entries / n; k += 1) {
+            for (int i = _numRotors - 1, p = k; i >= _firstMoving; i -= 1) {
+                pos[i - 1] = p % n;
+                p /= n;
+            }
+            for (int c = 0; c < n; c += 1) {
+                table[k * n + c] = (char) config.scramble(order, 0, pos, 0, c);
+            }
+        }
+        _table = table;
+        _tables.put(_key, table);
+    }
+
+    /** Largest number of tables kept. */
+    private static final int MAX_TABLES = 64;
+
+    /** A table is built after 1/BUILD_FRACTION as many conversions as it
+     *  has entries. */
+    private static final int BUILD_FRACTION = 4;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Slot of the leftmost moving rotor. */
+    private final int _firstMoving;
+
+    /** Number of entries in a table. */
+    private final int _entries;
+
+    /** Tables kept, by configuration, least recently used first. */
+    private final LinkedHashMap<String, char[]> _tables;
+
+    /** Key of the loaded configuration. */
+    private String _key;
+
+    /** Table of the loaded configuration, or null if not yet built. */
+    private char[] _table;
+
+    /** Number of conversions in the loaded configuration without a
+     *  table. */
+    private int _uses;
+
+}
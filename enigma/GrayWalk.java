@@ -0,0 +1,316 @@
+package enigma;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** A walk through a range of the keys of a machine in Gray-code order
+ *  (see Keyspace), keeping the scrambler table of each key: the
+ *  conversion of each character by the rotors and reflector at the
+ *  key's initial positions, without stepping or the plugboard, as by
+ *  Machine.scramble.  Since consecutive keys differ by one step of a
+ *  single rotor, the table is kept up to date by recomputing only the
+ *  part of its composition that rotor affects.  The composition is kept
+ *  in layers, from the reflector out, one per rotor, so a step of the
+ *  rotor in slot I recomputes layers I to numRotors-1: usually just the
+ *  last, since the rightmost rotor moves most often.
+ *
+ *  A walk is a Spliterator of key numbers, which splits into walks of
+ *  halves of its range, so that it may be the source of a parallel
+ *  stream.  A walk may be given a filter, so that it supplies only the
+ *  keys whose scrambler tables pass it; this is how the tables are used
+ *  in a parallel stream.  A walk used directly, with next, is a cursor
+ *  whose key, positions and table may be read after each step.
+ *  @author Jinho Shin
+ */
+class GrayWalk implements Spliterator.OfLong {
+
+    /** A test of a key, given its scrambler table SCRAMBLER and initial
+     *  POSITIONS, which it must not change.  It may be called from many
+     *  threads at once. */
+    interface Filter {
+        /** Return true iff the key with scrambler table SCRAMBLER and
+         *  positions POSITIONS is to be supplied. */
+        boolean accept(int[] scrambler, int[] positions);
+    }
+
+    /** A walk through the keys of M of ranks FROM .. TO-1, supplying
+     *  only those that pass FILTER, or all if FILTER is null. */
+    GrayWalk(Machine M, long from, long to, Filter filter) {
+        this(new CompiledConfig(M), M.keyspace(), from, to, filter);
+        if (from < 0 || to > _keys.size() || from > to) {
+            throw error("bad range of keys: %d .. %d", from, to);
+        }
+    }
+
+    /** A walk through the keys of M of ranks FROM .. TO-1. */
+    GrayWalk(Machine M, long from, long to) {
+        this(M, from, to, null);
+    }
+
+    /** A walk through the keys KEYS of CONFIG of ranks FROM .. TO-1,
+     *  supplying only those that pass FILTER. */
+    private GrayWalk(CompiledConfig config, Keyspace keys, long from,
+                     long to, Filter filter) {
+        _config = config;
+        _keys = keys;
+        _next = from;
+        _to = to;
+        _filter = filter;
+        _size = config.alphabet().size();
+        int digits = config.numRotors() - 1;
+        _order = new int[digits + 1];
+        _positions = new int[digits];
+        _weights = new long[digits];
+        long weight = 1;
+        for (int i = digits - 1; i >= 0; i -= 1) {
+            _weights[i] = weight;
+            weight *= _size;
+        }
+        _layers = new int[digits + 1][_size];
+        if (_size <= SHIFTED_LIMIT) {
+            _forwardAt = new int[digits + 1][_size][_size];
+            _backwardAt = new int[digits + 1][_size][_size];
+        } else {
+            _forwardAt = _backwardAt = null;
+        }
+    }
+
+    /** Advance to the next key in my range, returning false if there is
+     *  none.  Filters do not apply. */
+    boolean next() {
+        if (_next >= _to) {
+            return false;
+        }
+        if (_next == _rank + 1 && _next % _keys.positions() != 0) {
+            step();
+        } else {
+            start(_next);
+        }
+        _rank = _next;
+        _next += 1;
+        return true;
+    }
+
+    /** Return the number of the current key. */
+    long key() {
+        return _key;
+    }
+
+    /** Return the rank of the current key. */
+    long rank() {
+        return _rank;
+    }
+
+    /** Return the initial positions of the rotors after the reflector,
+     *  leftmost first, of the current key.  The array is mine, and must
+     *  not be changed. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** Return the scrambler table of the current key.  The array is
+     *  mine, and must not be changed. */
+    int[] scrambler() {
+        return _layers[_layers.length - 1];
+    }
+
+    /** Return the numbers (in config()) of the rotors of the current key,
+     *  reflector first.  The array is mine, and must not be changed. */
+    int[] order() {
+        return _order;
+    }
+
+    /** Return the compiled rotors of my machine. */
+    CompiledConfig config() {
+        return _config;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        while (next()) {
+            if (_filter == null || _filter.accept(scrambler(), _positions)) {
+                action.accept(_key);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public GrayWalk trySplit() {
+        long remaining = _to - _next;
+        if (remaining < MIN_SPLIT) {
+            return null;
+        }
+        long mid = _next + remaining / 2;
+        GrayWalk prefix = new GrayWalk(_config, _keys, _next, mid, _filter);
+        _next = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _to - _next;
+    }
+
+    @Override
+    public int characteristics() {
+        int result = ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+        if (_filter == null) {
+            result |= SIZED | SUBSIZED;
+        }
+        return result;
+    }
+
+    /** Set my state to that of the key of rank RANK, computing every
+     *  layer of its table. */
+    private void start(long rank) {
+        long base = rank - rank % _keys.positions();
+        if (base != _base || _rank < 0) {
+            String[] names = _keys.rotors(base);
+            for (int i = 0; i < _order.length; i += 1) {
+                _order[i] = _config.rotor(names[i]);
+            }
+            int[] reflector = _layers[0];
+            for (int c = 0; c < _size; c += 1) {
+                reflector[c] = _config.backward(_order[0], c);
+            }
+            if (_forwardAt != null) {
+                shiftTables();
+            }
+            _base = base;
+        }
+        long posn = _keys.grayPosition(rank - base);
+        _key = base + posn;
+        _sum = 0;
+        for (int i = _positions.length - 1; i >= 0; i -= 1) {
+            _positions[i] = (int) (posn % _size);
+            _sum += _positions[i];
+            posn /= _size;
+        }
+        rebuild(1);
+    }
+
+    /** Move to the key following the current one in Gray-code order
+     *  within the same rotor order, recomputing the layers affected.
+     *  The digit that moves is the rightmost that is not at the end of
+     *  its run: it moves up if the sum of the digits to its left is even,
+     *  and down otherwise. */
+    private void step() {
+        int right = 0;
+        for (int i = _positions.length - 1; i >= 0; i -= 1) {
+            int p = _positions[i];
+            right += p;
+            boolean up = (_sum - right) % 2 == 0;
+            if (up && p < _size - 1 || !up && p > 0) {
+                int d = up ? 1 : -1;
+                _positions[i] = p + d;
+                _sum += d;
+                _key += d * _weights[i];
+                rebuild(i + 1);
+                return;
+            }
+        }
+        throw error("internal error: no next Gray-code position");
+    }
+
+    /** Recompute layers FIRST to numRotors-1 of the table.  Layer 0 is
+     *  the reflector, and layer J is layer J-1 between a forward and
+     *  a backward pass through the rotor in slot J. */
+    private void rebuild(int first) {
+        int n = _size;
+        for (int j = first; j < _layers.length; j += 1) {
+            int[] inner = _layers[j - 1], layer = _layers[j];
+            int s = _positions[j - 1];
+            if (_forwardAt != null) {
+                int[] forward = _forwardAt[j][s], backward = _backwardAt[j][s];
+                for (int c = 0; c < n; c += 1) {
+                    layer[c] = backward[inner[forward[c]]];
+                }
+                continue;
+            }
+            int r = _order[j];
+            for (int c = 0; c < n; c += 1) {
+                int t = c + s;
+                int e = _config.forward(r, t >= n ? t - n : t) - s;
+                t = inner[e < 0 ? e + n : e] + s;
+                e = _config.backward(r, t >= n ? t - n : t) - s;
+                layer[c] = e < 0 ? e + n : e;
+            }
+        }
+    }
+
+    /** Fill _forwardAt and _backwardAt for the rotors of the current
+     *  order. */
+    private void shiftTables() {
+        int n = _size;
+        for (int j = 1; j < _order.length; j += 1) {
+            int r = _order[j];
+            for (int s = 0; s < n; s += 1) {
+                int[] forward = _forwardAt[j][s], backward = _backwardAt[j][s];
+                for (int c = 0; c < n; c += 1) {
+                    int t = (c + s) % n;
+                    forward[c] = Math.floorMod(_config.forward(r, t) - s, n);
+                    backward[c] = Math.floorMod(_config.backward(r, t) - s, n);
+                }
+            }
+        }
+    }
+
+    /** Smallest range of ranks that trySplit divides. */
+    static final long MIN_SPLIT = 1 << 10;
+
+    /** Largest alphabet for which the conversions of each rotor at each
+     *  setting are tabulated. */
+    static final int SHIFTED_LIMIT = 256;
+
+    /** Compiled rotors of my machine. */
+    private final CompiledConfig _config;
+
+    /** Keys of my machine. */
+    private final Keyspace _keys;
+
+    /** One past my last rank. */
+    private final long _to;
+
+    /** Test of keys to supply, or null for all. */
+    private final Filter _filter;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Rotor numbers of the current key, reflector first. */
+    private final int[] _order;
+
+    /** Initial positions of the current key, leftmost first. */
+    private final int[] _positions;
+
+    /** Amount added to a key by a step of each rotor. */
+    private final long[] _weights;
+
+    /** The forward and backward conversions of the rotor in each slot
+     *  of the current order at each setting, or null if the alphabet
+     *  is larger than SHIFTED_LIMIT. */
+    private final int[][][] _forwardAt, _backwardAt;
+
+    /** Layers of the composition of the scrambler table. */
+    private final int[][] _layers;
+
+    /** Rank of the next key. */
+    private long _next;
+
+    /** Rank of the current key, or -1 if none. */
+    private long _rank = -1;
+
+    /** Number of the current key. */
+    private long _key;
+
+    /** Number of the first key of the current rotor order. */
+    private long _base;
+
+    /** Sum of _positions. */
+    private int _sum;
+
+}
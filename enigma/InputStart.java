@@ -0,0 +1,65 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The check, shared by every way of processing input, that the input
+ *  starts with a settings line: its first line that is not blank must
+ *  have an asterisk as its first token.  Each line is passed to next as
+ *  it is read, and finish is called at the end of the input.
+ *  @author Jinho Shin
+ */
+class InputStart {
+
+    /** A check of input whose first settings line has already been seen
+     *  iff STARTED (as when resuming partway through). */
+    InputStart(boolean started) {
+        _started = started;
+    }
+
+    /** A check of input from its start. */
+    InputStart() {
+        this(false);
+    }
+
+    /** Return true iff a settings line has been seen. */
+    boolean started() {
+        return _started;
+    }
+
+    /** Check the next line of input, LINE. */
+    void next(CharSequence line) {
+        if (_started) {
+            return;
+        }
+        int first = 0, len = line.length();
+        while (first < len && Character.isWhitespace(line.charAt(first))) {
+            first += 1;
+        }
+        if (first == len) {
+            return;
+        }
+        if (!isSettings(line, first)) {
+            throw error("need a setting first");
+        }
+        _started = true;
+    }
+
+    /** Check that the input, now ended, had a settings line. */
+    void finish() {
+        if (!_started) {
+            throw error("need a setting first");
+        }
+    }
+
+    /** Return true iff the token of LINE starting at index FIRST is an
+     *  asterisk. */
+    static boolean isSettings(CharSequence line, int first) {
+        return line.charAt(first) == '*'
+            && (first + 1 == line.length()
+                || Character.isWhitespace(line.charAt(first + 1)));
+    }
+
+    /** True once a settings line has been seen. */
+    private boolean _started;
+
+}
@@ -0,0 +1,170 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** An interactive session driving a machine one keystroke at a time, as
+ *  from an operator's keyboard.  Each key in the machine's alphabet is
+ *  converted with Machine.convert(int) as soon as it is read, and its
+ *  lamp is written and flushed at once.  A line starting with an
+ *  asterisk is a settings line, applied when its newline arrives; an
+ *  asterisk elsewhere is an ordinary key.  Keys before the first
+ *  settings line, and keys not in the alphabet, are ignored, and
+ *  newlines are echoed.  A newline is a line feed, a carriage return,
+ *  or a carriage return followed by a line feed.  The latency of each
+ *  conversion (not including I/O) is recorded in a histogram.
+ *
+ *  Keys are read as single bytes, so the alphabet must consist of
+ *  ISO-8859-1 characters.  To read single keystrokes from a terminal,
+ *  put it in raw mode (for example, with stty raw -echo) first.
+ *  @author Jinho Shin
+ */
+class Interactive {
+
+    /** A session reading keys from IN and writing lamps to OUT with M. */
+    Interactive(Machine M, InputStream in, OutputStream out) {
+        _machine = M;
+        _in = in;
+        _out = out;
+        _alphabet = M.alphabet();
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+    }
+
+    /** Run the JIT-compiled code of conversions on a copy of M, first
+     *  passed to SETUP so that it uses the same engine as the sessions,
+     *  so that latencies measured afterwards reflect warmed-up code. */
+    static void warmUp(Machine M, Consumer<Machine> setup) {
+        Machine copy = M.copy();
+        setup.accept(copy);
+        Keyspace keys = copy.keyspace();
+        if (keys.size() == 0) {
+            return;
+        }
+        copy.apply(Settings.compile(copy, keys.settingsLine(0)));
+        int n = copy.alphabet().size(), x = 0;
+        for (int i = 0; i < WARM_UP; i += 1) {
+            x = copy.convert((x + i) % n);
+        }
+    }
+
+    /** Process keys until the end of the input. */
+    void run() throws IOException {
+        StringBuilder line = null;
+        boolean ready = false, atStart = true, skipNewline = false;
+        for (int b = _in.read(); b >= 0; b = _in.read()) {
+            char key = (char) b;
+            if (skipNewline) {
+                skipNewline = false;
+                if (key == '\n') {
+                    continue;
+                }
+            }
+            if (line != null) {
+                if (key == '\n' || key == '\r') {
+                    try {
+                        _machine.apply(_settings.get(line.toString()));
+                        ready = true;
+                        _out.write('\n');
+                    } catch (EnigmaException excp) {
+                        _out.write(String.format("%nError: %s%n",
+                                                 excp.getMessage())
+                                   .getBytes());
+                    }
+                    line = null;
+                    atStart = true;
+                    skipNewline = key == '\r';
+                    _out.flush();
+                } else {
+                    line.append(key);
+                }
+            } else if (key == '\n' || key == '\r') {
+                atStart = true;
+                _out.write(key);
+                _out.flush();
+            } else if (key == '*' && atStart) {
+                line = new StringBuilder("*");
+            } else {
+                atStart = false;
+                if (ready && _alphabet.contains(key)) {
+                    int c = _alphabet.toInt(key);
+                    long start = System.nanoTime();
+                    int lamp = _machine.convert(c);
+                    _latency.record(System.nanoTime() - start);
+                    _out.write(_alphabet.toChar(lamp));
+                    _out.flush();
+                }
+            }
+        }
+    }
+
+    /** Return the histogram of conversion latencies. */
+    LatencyHistogram latency() {
+        return _latency;
+    }
+
+    /** Run interactive sessions with M for Main: one on the standard
+     *  input and output if PORT is negative, and otherwise one for each
+     *  connection to PORT, in turn, each with its own copy of M, first
+     *  passed to SETUP.  Report latencies to REPORT after each
+     *  session. */
+    static void serve(Machine M, Consumer<Machine> setup, int port,
+                      PrintStream report) {
+        warmUp(M, setup);
+        try {
+            if (port < 0) {
+                Interactive session = new Interactive(M, System.in,
+                                                      System.out);
+                session.run();
+                report.printf("Latency: %s%n", session.latency());
+                return;
+            }
+            try (ServerSocket server = new ServerSocket(port)) {
+                while (true) {
+                    try (Socket socket = server.accept()) {
+                        socket.setTcpNoDelay(true);
+                        Machine copy = M.copy();
+                        setup.accept(copy);
+                        Interactive session =
+                            new Interactive(copy, socket.getInputStream(),
+                                            socket.getOutputStream());
+                        session.run();
+                        report.printf("Latency: %s%n", session.latency());
+                    } catch (IOException excp) {
+                        report.printf("Error: %s%n", excp.getMessage());
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("interactive I/O failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Number of conversions run by warmUp. */
+    static final int WARM_UP = 200_000;
+
+    /** Machine converting keys. */
+    private final Machine _machine;
+
+    /** Source of keys. */
+    private final InputStream _in;
+
+    /** Destination of lamps. */
+    private final OutputStream _out;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Compiled settings lines. */
+    private final SettingsCache _settings;
+
+    /** Conversion latencies. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+}
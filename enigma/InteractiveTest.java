@@ -0,0 +1,106 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/** The suite of all JUnit tests for Interactive and LatencyHistogram.
+ *  @author Jinho Shin
+ */
+public class InteractiveTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings used in the tests. */
+    private static final String SETTINGS =
+        "* B Beta I II III AAAA (AQ) (EP)";
+
+    /** Return the output of an interactive session with a naval machine
+     *  given the keys INPUT, and store the session in SESSION[0]. */
+    private static String session(String input, Interactive[] session)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        session[0] =
+            new Interactive(new MachineTest().navalMachine(),
+                            new ByteArrayInputStream(input.getBytes()), out);
+        session[0].run();
+        return out.toString();
+    }
+
+    @Test
+    public void testKeystrokes() throws IOException {
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        String expected = ref.convert("HELLOWORLD");
+        Interactive[] session = new Interactive[1];
+        String out = session("XY\n" + SETTINGS + "\nHELLO world\n", session);
+        assertEquals("\n\n" + expected.substring(0, 5) + "\n", out);
+        assertEquals(5, session[0].latency().count());
+
+        out = session(SETTINGS + "\r\n* B Beta I II\nHELLO", session);
+        assertTrue(out.startsWith("\n\nError: "));
+        assertTrue(out.endsWith("\n" + expected.substring(0, 5)));
+    }
+
+    @Test
+    public void testLineStarts() throws IOException {
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        String expected = ref.convert("HELLOHI");
+        Interactive[] session = new Interactive[1];
+        String out = session(SETTINGS + "\r\nHELLO * 12\rHI", session);
+        assertEquals("\n" + expected.substring(0, 5) + "\r"
+                     + expected.substring(5), out);
+        assertEquals(7, session[0].latency().count());
+
+        out = session(SETTINGS + "\r\r\nHELLO", session);
+        assertEquals("\n\r\n" + expected.substring(0, 5), out);
+    }
+
+    @Test
+    public void testWarmUp() {
+        Machine M = new MachineTest().navalMachine();
+        int[] conversions = new int[1];
+        Interactive.warmUp(M, copy -> copy.useEngine(
+                               new CompiledEngine(copy) {
+                                   @Override
+                                   public int convert(int c) {
+                                       conversions[0] += 1;
+                                       return super.convert(c);
+                                   }
+                               }));
+        assertEquals(Interactive.WARM_UP, conversions[0]);
+        M.apply(Settings.compile(M, SETTINGS));
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        assertEquals(ref.convert("HELLOWORLD"), M.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.99));
+        for (long v = 1; v <= 1000; v += 1) {
+            h.record(v * 100);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(100000, h.max());
+        long p50 = h.percentile(0.5), p99 = h.percentile(0.99);
+        assertTrue(p50 >= 50000 && p50 <= 50000 + 50000 / 16);
+        assertTrue(p99 >= 99000 && p99 <= 99000 + 99000 / 16);
+        assertEquals(100000, h.percentile(1.0));
+        h.record(-5);
+        assertEquals(0, h.percentile(0.0001));
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.max());
+    }
+
+}
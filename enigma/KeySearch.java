@@ -0,0 +1,326 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static enigma.EnigmaException.*;
+
+/** Coordinator for a search of the keyspace of a configuration, divided
+ *  into deterministic shards of keys of consecutive ranks in Gray-code
+ *  order (see Keyspace), each handed to one of a number of SearchWorker
+ *  processes over its standard input and output.  Shards held by a
+ *  worker that dies are re-issued to another worker, and dead workers
+ *  are replaced, up to a limited number of restarts.
+ *  @author Jinho Shin
+ */
+public class KeySearch {
+
+    /** Search the keyspace of configuration file ARGS[0] for keys that
+     *  decipher ciphertext ARGS[1] to a message starting with ARGS[2],
+     *  printing the settings line of each such key.  ARGS[3] and
+     *  ARGS[4] optionally give the number of worker processes and the
+     *  number of keys per shard. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3 || args.length > 5) {
+                throw error("usage: KeySearch CONFIG CIPHERTEXT CRIB "
+                            + "[WORKERS [SHARDSIZE]]");
+            }
+            int workers = args.length > 3 ? parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+            long shardSize = args.length > 4 ? parseInt(args[4])
+                : DEFAULT_SHARD_SIZE;
+            KeySearch search =
+                new KeySearch(args[0], args[1], args[2], workers, shardSize);
+            search.setLog(System.err);
+            for (long key : search.run()) {
+                System.out.println(search.keyspace().settingsLine(key));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search of the keys of configuration file CONFIG for those that
+     *  decipher CIPHERTEXT to a message starting with CRIB, using WORKERS
+     *  worker processes and shards of SHARDSIZE keys. */
+    KeySearch(String config, String ciphertext, String crib,
+              int workers, long shardSize) {
+        if (workers < 1 || shardSize < 1) {
+            throw error("need at least one worker and one key per shard");
+        }
+        _config = config;
+        _ciphertext = ciphertext.replace(" ", "");
+        _crib = crib.replace(" ", "");
+        _keys = new SearchWorker(Main.readConfig(config), _ciphertext,
+                                 _crib).keyspace();
+        _workers = workers;
+        _shardSize = shardSize;
+        _progress = new long[workers];
+        _restarts = workers * MAX_RESTARTS;
+        for (long s = 0; s < _keys.shards(shardSize); s += 1) {
+            _pending.add(s);
+        }
+        _remaining = _pending.size();
+    }
+
+    /** Return the keyspace being searched. */
+    Keyspace keyspace() {
+        return _keys;
+    }
+
+    /** Report progress to LOG as shards complete, if LOG is not null. */
+    void setLog(PrintStream log) {
+        _log = log;
+    }
+
+    /** Return the number of keys tested so far. */
+    synchronized long progress() {
+        long result = _completed;
+        for (long p : _progress) {
+            result += p;
+        }
+        return result;
+    }
+
+    /** Run the search to completion, returning the matching keys in
+     *  increasing order. */
+    long[] run() {
+        Thread[] threads = new Thread[_workers];
+        for (int i = 0; i < _workers; i += 1) {
+            final int slot = i;
+            threads[i] = new Thread(() -> drive(slot), "KeySearch-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("key search interrupted");
+            }
+        }
+        synchronized (this) {
+            if (_remaining > 0) {
+                throw error("all workers failed with %d shards unsearched",
+                            _remaining);
+            }
+            return _hits.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    /** Return the command that starts the worker process for SLOT. */
+    List<String> workerCommand(int slot) {
+        String java = System.getProperty("java.home") + File.separator
+            + "bin" + File.separator + "java";
+        return Arrays.asList(java, "-cp",
+                             System.getProperty("java.class.path"),
+                             SearchWorker.class.getName(), _config,
+                             _ciphertext, _crib);
+    }
+
+    /** Feed shards to a succession of worker processes in SLOT until
+     *  none remain or I run out of restarts. */
+    private void drive(int slot) {
+        Process proc = null;
+        BufferedReader from = null;
+        PrintStream to = null;
+        try {
+            while (true) {
+                long shard = take();
+                if (shard < 0) {
+                    break;
+                }
+                ArrayList<Long> hits = new ArrayList<>();
+                boolean done;
+                try {
+                    if (proc == null) {
+                        proc = new ProcessBuilder(workerCommand(slot))
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start();
+                        from = new BufferedReader(
+                            new InputStreamReader(proc.getInputStream()));
+                        to = new PrintStream(proc.getOutputStream(), true);
+                    }
+                    done = runShard(slot, shard, from, to, hits);
+                } catch (IOException | NumberFormatException excp) {
+                    done = false;
+                }
+                if (done) {
+                    complete(slot, shard, hits);
+                } else {
+                    if (proc != null) {
+                        proc.destroyForcibly();
+                        proc = null;
+                    }
+                    if (!requeue(slot, shard)) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (proc != null) {
+                to.println("QUIT");
+                to.close();
+                try {
+                    proc.waitFor();
+                } catch (InterruptedException excp) {
+                    proc.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /** Have the worker reading TO and writing FROM in SLOT search SHARD,
+     *  adding its hits to HITS.  Returns true iff the worker completed
+     *  the shard. */
+    private boolean runShard(int slot, long shard, BufferedReader from,
+                             PrintStream to, ArrayList<Long> hits)
+        throws IOException {
+        to.printf("SHARD %d %d %d%n", shard,
+                  _keys.shardStart(shard, _shardSize),
+                  _keys.shardEnd(shard, _shardSize));
+        if (to.checkError()) {
+            return false;
+        }
+        String line;
+        while ((line = from.readLine()) != null) {
+            String[] words = line.split(" ");
+            if (words.length < 2 || Long.parseLong(words[1]) != shard
+                || !words[0].equals("DONE") && words.length != 3) {
+                return false;
+            }
+            switch (words[0]) {
+            case "HIT":
+                hits.add(Long.parseLong(words[2]));
+                break;
+            case "PROGRESS":
+                synchronized (this) {
+                    _progress[slot] = Long.parseLong(words[2]);
+                }
+                break;
+            case "DONE":
+                return true;
+            default:
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Return the next shard to search, waiting while other workers
+     *  hold shards that might yet be re-issued, or -1 if there are no
+     *  more. */
+    private synchronized long take() {
+        while (_pending.isEmpty() && _active > 0) {
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                return -1;
+            }
+        }
+        if (_pending.isEmpty()) {
+            return -1;
+        }
+        _active += 1;
+        return _pending.remove();
+    }
+
+    /** Record that SLOT has finished SHARD, with matching keys HITS. */
+    private synchronized void complete(int slot, long shard,
+                                       ArrayList<Long> hits) {
+        _hits.addAll(hits);
+        _completed += _keys.shardEnd(shard, _shardSize)
+            - _keys.shardStart(shard, _shardSize);
+        _progress[slot] = 0;
+        _active -= 1;
+        _remaining -= 1;
+        if (_log != null) {
+            _log.printf("searched %d of %d keys%n", _completed, _keys.size());
+        }
+        notifyAll();
+    }
+
+    /** Return SHARD, abandoned by the worker in SLOT, to the queue.
+     *  Returns true iff SLOT may start a new worker. */
+    private synchronized boolean requeue(int slot, long shard) {
+        _pending.add(shard);
+        _progress[slot] = 0;
+        _active -= 1;
+        _restarts -= 1;
+        if (_log != null) {
+            _log.printf("worker %d failed; re-issuing shard %d%n",
+                        slot, shard);
+        }
+        notifyAll();
+        return _restarts >= 0;
+    }
+
+    /** Return the integer denoted by S. */
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException excp) {
+            throw error("bad number: %s", s);
+        }
+    }
+
+    /** Default number of keys per shard. */
+    static final long DEFAULT_SHARD_SIZE = 1 << 20;
+
+    /** Number of worker restarts allowed per worker slot. */
+    static final int MAX_RESTARTS = 3;
+
+    /** Name of the configuration file. */
+    private final String _config;
+
+    /** Ciphertext to decipher, without spaces. */
+    private final String _ciphertext;
+
+    /** Expected start of the plaintext, without spaces. */
+    private final String _crib;
+
+    /** Keys to search. */
+    private final Keyspace _keys;
+
+    /** Number of worker slots. */
+    private final int _workers;
+
+    /** Keys per shard. */
+    private final long _shardSize;
+
+    /** Shards not yet handed to a worker. */
+    private final ArrayDeque<Long> _pending = new ArrayDeque<>();
+
+    /** Matching keys from completed shards. */
+    private final TreeSet<Long> _hits = new TreeSet<>();
+
+    /** Keys tested so far in the current shard of each slot. */
+    private final long[] _progress;
+
+    /** Keys in completed shards. */
+    private long _completed;
+
+    /** Number of shards held by workers. */
+    private int _active;
+
+    /** Number of shards not yet completed. */
+    private long _remaining;
+
+    /** Number of worker restarts left. */
+    private int _restarts;
+
+    /** Destination of progress reports, or null. */
+    private PrintStream _log;
+
+}
@@ -0,0 +1,195 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.StreamSupport;
+
+/** The suite of all JUnit tests for Keyspace, GrayWalk and KeySearch.
+ *  @author Jinho Shin
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** A small configuration with 1 * 3 * 2 * 6 * 6 = 216 keys. */
+    private static final String CONFIG =
+        "ABCDEF 3 2\n"
+        + "RF R (AB) (CD) (EF)\n"
+        + "R1 MA (BCD) (EFA)\n"
+        + "R2 MC (ABC)\n"
+        + "R3 MB (AF) (BE)\n";
+
+    /** Return the name of a temporary file containing CONFIG. */
+    private String configFile() throws IOException {
+        File f = File.createTempFile("enigma", ".conf");
+        f.deleteOnExit();
+        try (PrintStream out = new PrintStream(f)) {
+            out.print(CONFIG);
+        }
+        return f.getPath();
+    }
+
+    /** Return the encipherment of MSG under key number KEY of M. */
+    private String encipher(Machine M, long key, String msg) {
+        Keyspace keys = M.keyspace();
+        M.insertRotors(keys.rotors(key));
+        M.setRotors(keys.setting(key));
+        M.setPlugboard(new Permutation("", new Alphabet("")));
+        return M.convert(msg);
+    }
+
+    @Test
+    public void testKeyspace() throws IOException {
+        Keyspace keys = Main.readConfig(configFile()).keyspace();
+        assertEquals(216, keys.size());
+        assertEquals(6, keys.orders());
+        assertEquals("* RF R1 R2 AA", keys.settingsLine(0));
+        assertEquals("* RF R1 R2 AB", keys.settingsLine(1));
+        assertEquals("* RF R1 R3 AA", keys.settingsLine(36));
+        assertEquals("* RF R3 R2 FF", keys.settingsLine(215));
+        assertEquals(22, keys.shards(10));
+        assertEquals(216, keys.shardEnd(21, 10));
+    }
+
+    @Test
+    public void testGrayOrder() throws IOException {
+        Keyspace keys = Main.readConfig(configFile()).keyspace();
+        TreeSet<Long> seen = new TreeSet<>();
+        for (long r = 0; r < keys.size(); r += 1) {
+            long key = keys.grayKey(r);
+            seen.add(key);
+            assertEquals(r / 36, key / 36);
+            if (r % 36 != 0) {
+                String a = keys.setting(keys.grayKey(r - 1)),
+                    b = keys.setting(key);
+                int moves = 0;
+                for (int i = 0; i < a.length(); i += 1) {
+                    int d = Math.abs(a.charAt(i) - b.charAt(i));
+                    assertTrue(d <= 1);
+                    moves += d;
+                }
+                assertEquals(1, moves);
+            }
+        }
+        assertEquals(216, seen.size());
+        assertEquals(0, keys.grayKey(0));
+        assertEquals("FA", keys.setting(keys.grayKey(35)));
+    }
+
+    @Test
+    public void testGrayWalk() throws IOException {
+        Machine M = Main.readConfig(configFile());
+        M.setPlugboard(new Permutation("", new Alphabet("")));
+        Keyspace keys = M.keyspace();
+        GrayWalk walk = new GrayWalk(M, 30, 216);
+        for (long r = 30; r < 216; r += 1) {
+            assertTrue(walk.next());
+            assertEquals(r, walk.rank());
+            assertEquals(keys.grayKey(r), walk.key());
+            M.insertRotors(keys.rotors(walk.key()));
+            M.setRotors(keys.setting(walk.key()));
+            assertArrayEquals(M.positions(), walk.positions());
+            for (int c = 0; c < 6; c += 1) {
+                assertEquals(M.scramble(c), walk.scrambler()[c]);
+            }
+        }
+        assertFalse(walk.next());
+    }
+
+    @Test
+    public void testParallelWalk() {
+        Machine M = new MachineTest().navalMachine();
+        Keyspace keys = M.keyspace();
+        long end = 3 * keys.positions() + 5000;
+        GrayWalk.Filter filter = (table, posn) -> table[0] == 1;
+        long[] parallel =
+            StreamSupport.longStream(new GrayWalk(M, 0, end, filter), true)
+            .sorted().toArray();
+        List<Long> expected = new ArrayList<>();
+        for (long r = 0; r < end; r += 1) {
+            long key = keys.grayKey(r);
+            M.insertRotors(keys.rotors(key));
+            M.setRotors(keys.setting(key));
+            if (M.scramble(0) == 1) {
+                expected.add(key);
+            }
+        }
+        expected.sort(null);
+        assertEquals(expected.size(), parallel.length);
+        for (int i = 0; i < parallel.length; i += 1) {
+            assertEquals((long) expected.get(i), parallel[i]);
+        }
+        GrayWalk walk = new GrayWalk(M, 0, end);
+        assertEquals(end, walk.estimateSize());
+        assertNotNull(walk.trySplit());
+        assertEquals(end - end / 2, walk.estimateSize());
+    }
+
+    @Test
+    public void testSearchInProcess() throws IOException {
+        Machine M = Main.readConfig(configFile());
+        String cipher = encipher(M, 100, "BADFACE");
+        SearchWorker w = new SearchWorker(Main.readConfig(configFile()),
+                                          cipher, "BADFACE");
+        List<Long> hits = new ArrayList<>();
+        w.search(0, 216, hits::add, (n) -> { });
+        assertTrue(hits.contains(100L));
+        List<Long> parts = new ArrayList<>();
+        w.search(0, 100, parts::add, (n) -> { });
+        w.search(100, 216, parts::add, (n) -> { });
+        parts.sort(null);
+        assertEquals(hits, parts);
+    }
+
+    @Test
+    public void testCoordinator() throws IOException {
+        String config = configFile();
+        Machine M = Main.readConfig(config);
+        String cipher = encipher(M, 137, "CAFEBABE");
+        List<Long> expected = new ArrayList<>();
+        new SearchWorker(Main.readConfig(config), cipher, "CAFE")
+            .search(0, 216, expected::add, (n) -> { });
+        KeySearch search = new KeySearch(config, cipher, "CAFE", 3, 10);
+        long[] hits = search.run();
+        assertEquals(expected.size(), hits.length);
+        for (int i = 0; i < hits.length; i += 1) {
+            assertEquals((long) expected.get(i), hits[i]);
+        }
+        assertEquals(216, search.progress());
+    }
+
+    @Test
+    public void testWorkerFailure() throws IOException {
+        String config = configFile();
+        Machine M = Main.readConfig(config);
+        String cipher = encipher(M, 42, "FADED");
+        KeySearch search = new KeySearch(config, cipher, "FADED", 2, 7) {
+            private boolean _crashed;
+
+            @Override
+            synchronized List<String> workerCommand(int slot) {
+                if (slot == 0 && !_crashed) {
+                    _crashed = true;
+                    return Arrays.asList("sh", "-c", "read x; exit 3");
+                }
+                return super.workerCommand(slot);
+            }
+        };
+        long[] hits = search.run();
+        assertTrue(Arrays.stream(hits).anyMatch((k) -> k == 42));
+        assertEquals(216, search.progress());
+    }
+
+}
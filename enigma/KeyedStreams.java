@@ -0,0 +1,249 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+
+/** A reactive fan-out of one stream of keyed chunks into independent
+ *  streams, one for each key, each converted by a StreamProcessor with
+ *  its own copy of a machine.  All the streams run on one shared
+ *  executor.  Each key's stream buffers at most a fixed number of
+ *  chunks.  Chunks are requested from upstream one at a time, each only
+ *  once the last has been accepted: a chunk whose key's buffer is full
+ *  is held, without blocking the upstream thread, until that key's
+ *  stream takes its next chunk, and only then is the next one
+ *  requested.  Other keys' streams keep running meanwhile.
+ *  @param <K> the type of keys.
+ *  @author Jinho Shin
+ */
+class KeyedStreams<K>
+    implements Flow.Subscriber<Map.Entry<K, StreamProcessor.Chunk>> {
+
+    /** A fan-out giving each new key a copy of machine M, running on
+     *  EXECUTOR with buffers of BUFFER chunks per key, and sending the
+     *  output for key K to SINKS.apply(K). */
+    KeyedStreams(Machine M, Executor executor, int buffer,
+                 Function<K, Flow.Subscriber<? super String>> sinks) {
+        _machine = M;
+        _executor = executor;
+        _buffer = buffer;
+        _sinks = sinks;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        _upstream = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(Map.Entry<K, StreamProcessor.Chunk> item) {
+        K key = item.getKey();
+        boolean accepted;
+        synchronized (this) {
+            SubmissionPublisher<StreamProcessor.Chunk> stream =
+                _streams.get(key);
+            if (stream == null) {
+                stream = new SubmissionPublisher<>(_executor, _buffer);
+                StreamProcessor processor =
+                    new StreamProcessor(_machine.copy());
+                stream.subscribe(new Lane(stream, processor));
+                processor.subscribe(_sinks.apply(key));
+                _streams.put(key, stream);
+            }
+            accepted = _cancelled.contains(stream)
+                || stream.offer(item.getValue(), (s, c) -> false) >= 0;
+            if (!accepted) {
+                _held = item.getValue();
+                _heldStream = stream;
+            }
+        }
+        if (accepted) {
+            _upstream.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        end(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        end(COMPLETE);
+    }
+
+    /** Return the number of keys seen. */
+    synchronized int size() {
+        return _streams.size();
+    }
+
+    /** Close every stream, with the error CAUSE, or normally if CAUSE
+     *  is COMPLETE, once any held chunk has been accepted. */
+    private void end(Throwable cause) {
+        synchronized (this) {
+            _ending = cause;
+            if (_held != null) {
+                return;
+            }
+        }
+        close();
+    }
+
+    /** Close every stream as _ending says. */
+    private void close() {
+        List<SubmissionPublisher<StreamProcessor.Chunk>> streams;
+        synchronized (this) {
+            streams = new ArrayList<>(_streams.values());
+        }
+        for (SubmissionPublisher<StreamProcessor.Chunk> s : streams) {
+            if (_ending == COMPLETE) {
+                s.close();
+            } else {
+                s.closeExceptionally(_ending);
+            }
+        }
+    }
+
+    /** Called when STREAM has taken a chunk from its buffer: offer it
+     *  the held chunk, if that is for STREAM, and once that is accepted,
+     *  request the next chunk or end. */
+    private void taken(SubmissionPublisher<StreamProcessor.Chunk> stream) {
+        synchronized (this) {
+            if (_heldStream != stream
+                || stream.offer(_held, (s, c) -> false) < 0) {
+                return;
+            }
+        }
+        release();
+    }
+
+    /** Called when the subscriber to STREAM has cancelled (as when its
+     *  processor fails or its own subscriber cancels): drop the held
+     *  chunk, if that is for STREAM, and all later chunks for STREAM,
+     *  which would otherwise wait for room that may never come (the
+     *  publisher removes a cancelled subscriber only later). */
+    private void cancelled(
+        SubmissionPublisher<StreamProcessor.Chunk> stream) {
+        synchronized (this) {
+            _cancelled.add(stream);
+            if (_heldStream != stream) {
+                return;
+            }
+        }
+        release();
+    }
+
+    /** Forget the held chunk, which has been accepted or dropped, and
+     *  request the next chunk or end. */
+    private void release() {
+        boolean ended;
+        synchronized (this) {
+            _held = null;
+            _heldStream = null;
+            ended = _ending != null;
+        }
+        if (ended) {
+            close();
+        } else {
+            _upstream.request(1);
+        }
+    }
+
+    /** The subscriber to the stream of one key, passing its chunks on
+     *  to the key's StreamProcessor and reporting each taken, and its
+     *  cancellation (as when the processor fails or its subscriber
+     *  cancels). */
+    private class Lane implements Flow.Subscriber<StreamProcessor.Chunk> {
+
+        /** A subscriber to STREAM passing its chunks on to PROCESSOR. */
+        Lane(SubmissionPublisher<StreamProcessor.Chunk> stream,
+             StreamProcessor processor) {
+            _stream = stream;
+            _processor = processor;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _processor.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    cancelled(_stream);
+                }
+            });
+        }
+
+        @Override
+        public void onNext(StreamProcessor.Chunk item) {
+            taken(_stream);
+            _processor.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _processor.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            _processor.onComplete();
+        }
+
+        /** The stream I subscribe to. */
+        private final SubmissionPublisher<StreamProcessor.Chunk> _stream;
+
+        /** The processor I pass chunks to. */
+        private final StreamProcessor _processor;
+    }
+
+    /** Marks normal completion in end. */
+    private static final Throwable COMPLETE = new Throwable();
+
+    /** Machine copied for each key. */
+    private final Machine _machine;
+
+    /** Executor running all streams. */
+    private final Executor _executor;
+
+    /** Number of chunks buffered per key. */
+    private final int _buffer;
+
+    /** Source of the subscriber for each key. */
+    private final Function<K, Flow.Subscriber<? super String>> _sinks;
+
+    /** Stream for each key. */
+    private final Map<K, SubmissionPublisher<StreamProcessor.Chunk>>
+        _streams = new HashMap<>();
+
+    /** Source of keyed chunks. */
+    private Flow.Subscription _upstream;
+
+    /** The chunk not yet accepted because its stream's buffer was full,
+     *  or null. */
+    private StreamProcessor.Chunk _held;
+
+    /** Streams whose subscribers have cancelled. */
+    private final Set<SubmissionPublisher<StreamProcessor.Chunk>>
+        _cancelled = new HashSet<>();
+
+    /** The stream _held is for, or null. */
+    private SubmissionPublisher<StreamProcessor.Chunk> _heldStream;
+
+    /** The ending of the input (see end), once it has arrived, or
+     *  null. */
+    private volatile Throwable _ending;
+
+}
@@ -0,0 +1,232 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static enigma.EnigmaException.*;
+
+/** The space of keys (rotor orders and initial positions) for a given
+ *  configuration, numbered deterministically from 0 to size()-1.  Key
+ *  number K decomposes into a rotor order, K / positions(), and an
+ *  initial position, K % positions(), so that consecutive keys share a
+ *  rotor order wherever possible.  Rotor orders are numbered with the
+ *  reflector varying slowest, then the non-moving rotors and then the
+ *  moving rotors, each as an ordered selection without repetition.
+ *
+ *  Keys may also be taken in Gray-code order, by rank: ranks run
+ *  through the rotor orders just as keys do, but within each rotor order
+ *  the initial positions follow the reflected N-ary Gray code, in which
+ *  consecutive positions differ by one step of a single rotor (see
+ *  GrayWalk).
+ *  @author Jinho Shin
+ */
+class Keyspace {
+
+    /** The keyspace of a machine with alphabet ALPHA, NUMROTORS slots,
+     *  PAWLS pawls, whose available rotors are ALLROTORS. */
+    Keyspace(Alphabet alpha, int numRotors, int pawls,
+             Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        for (Rotor r : allRotors) {
+            if (r.reflecting()) {
+                _reflectors.add(r.name());
+            } else if (r.rotates()) {
+                _moving.add(r.name());
+            } else {
+                _fixed.add(r.name());
+            }
+        }
+        _numFixed = numRotors - pawls - 1;
+        _positions = power(alpha.size(), numRotors - 1);
+        _fixedOrders = arrangements(_fixed.size(), _numFixed);
+        _movingOrders = arrangements(_moving.size(), pawls);
+        _orders = multiply(multiply(_reflectors.size(), _fixedOrders),
+                           _movingOrders);
+        _size = multiply(_orders, _positions);
+    }
+
+    /** Return the number of keys in this space. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the number of distinct rotor orders. */
+    long orders() {
+        return _orders;
+    }
+
+    /** Return the number of initial positions for each rotor order. */
+    long positions() {
+        return _positions;
+    }
+
+    /** Return the number of shards of at most SHARDSIZE keys each. */
+    long shards(long shardSize) {
+        return (_size + shardSize - 1) / shardSize;
+    }
+
+    /** Return the first key of shard number SHARD of SHARDSIZE keys. */
+    long shardStart(long shard, long shardSize) {
+        return Math.min(_size, shard * shardSize);
+    }
+
+    /** Return one past the last key of shard number SHARD of SHARDSIZE
+     *  keys. */
+    long shardEnd(long shard, long shardSize) {
+        return Math.min(_size, (shard + 1) * shardSize);
+    }
+
+    /** Return the key of rank RANK in Gray-code order. */
+    long grayKey(long rank) {
+        checkKey(rank);
+        return rank - rank % _positions + grayPosition(rank % _positions);
+    }
+
+    /** Return the initial position (as key % positions()) of rank RANK
+     *  among the positions of a rotor order in Gray-code order.  The
+     *  positions are taken as numbers of numRotors-1 digits, leftmost
+     *  rotor first.  As the leftmost digit runs from 0 up, the sequence
+     *  of the remaining digits is run through forwards after an even
+     *  digit and backwards after an odd one, and so on recursively. */
+    long grayPosition(long rank) {
+        int n = _alphabet.size();
+        long block = _positions, result = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            block /= n;
+            long digit = rank / block;
+            rank %= block;
+            if (digit % 2 == 1) {
+                rank = block - 1 - rank;
+            }
+            result = result * n + digit;
+        }
+        return result;
+    }
+
+    /** Return the names of the rotors, reflector first, used by
+     *  key number KEY. */
+    String[] rotors(long key) {
+        checkKey(key);
+        String[] result = new String[_numRotors];
+        long order = key / _positions;
+        long movingIndex = order % _movingOrders;
+        order /= _movingOrders;
+        long fixedIndex = order % _fixedOrders;
+        order /= _fixedOrders;
+        result[0] = _reflectors.get((int) order);
+        select(_fixed, fixedIndex, result, 1, _numFixed);
+        select(_moving, movingIndex, result, 1 + _numFixed, _numPawls);
+        return result;
+    }
+
+    /** Return the initial rotor settings of key number KEY, as a string
+     *  of numRotors-1 characters suitable for Machine.setRotors. */
+    String setting(long key) {
+        checkKey(key);
+        long posn = key % _positions;
+        int n = _alphabet.size();
+        char[] result = new char[_numRotors - 1];
+        for (int i = result.length - 1; i >= 0; i -= 1) {
+            result[i] = _alphabet.toChar((int) (posn % n));
+            posn /= n;
+        }
+        return new String(result);
+    }
+
+    /** Return the settings line (as accepted by Main) for key number
+     *  KEY, without a plugboard. */
+    String settingsLine(long key) {
+        StringBuilder line = new StringBuilder("*");
+        for (String name : rotors(key)) {
+            line.append(' ').append(name);
+        }
+        return line.append(' ').append(setting(key)).toString();
+    }
+
+    /** Check that KEY is in range. */
+    private void checkKey(long key) {
+        if (key < 0 || key >= _size) {
+            throw error("key %d out of range", key);
+        }
+    }
+
+    /** Store in RESULT[START .. START+K-1] the ordered selection number
+     *  INDEX of K names from NAMES. */
+    private static void select(ArrayList<String> names, long index,
+                               String[] result, int start, int k) {
+        ArrayList<String> left = new ArrayList<>(names);
+        long radix = arrangements(left.size(), k);
+        for (int i = 0; i < k; i += 1) {
+            radix /= left.size();
+            int choice = (int) (index / radix);
+            index %= radix;
+            result[start + i] = left.remove(choice);
+        }
+    }
+
+    /** Return the number of ordered selections of K items from N. */
+    private static long arrangements(int n, int k) {
+        long result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result = multiply(result, Math.max(0, n - i));
+        }
+        return result;
+    }
+
+    /** Return BASE raised to EXP. */
+    private static long power(int base, int exp) {
+        long result = 1;
+        for (int i = 0; i < exp; i += 1) {
+            result = multiply(result, base);
+        }
+        return result;
+    }
+
+    /** Return A * B, reporting overflow as an error. */
+    private static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException excp) {
+            throw error("keyspace too large");
+        }
+    }
+
+    /** Alphabet of my machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Number of non-moving, non-reflecting slots. */
+    private final int _numFixed;
+
+    /** Names of the available reflectors. */
+    private final ArrayList<String> _reflectors = new ArrayList<>();
+
+    /** Names of the available non-moving rotors. */
+    private final ArrayList<String> _fixed = new ArrayList<>();
+
+    /** Names of the available moving rotors. */
+    private final ArrayList<String> _moving = new ArrayList<>();
+
+    /** Number of initial positions per rotor order. */
+    private final long _positions;
+
+    /** Number of arrangements of non-moving rotors. */
+    private final long _fixedOrders;
+
+    /** Number of arrangements of moving rotors. */
+    private final long _movingOrders;
+
+    /** Number of rotor orders. */
+    private final long _orders;
+
+    /** Number of keys. */
+    private final long _size;
+
+}
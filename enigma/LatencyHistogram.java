@@ -0,0 +1,94 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** A histogram of latencies in nanoseconds, with buckets whose width
+ *  grows with their values so that every recorded value is known to
+ *  within 1/16 of itself.  Recording takes constant time and allocates
+ *  nothing.
+ *  @author Jinho Shin
+ */
+class LatencyHistogram {
+
+    /** Record the latency NANOS. */
+    void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        _counts[bucket(v)] += 1;
+        _count += 1;
+        _max = Math.max(_max, v);
+    }
+
+    /** Return the number of latencies recorded. */
+    long count() {
+        return _count;
+    }
+
+    /** Return the largest latency recorded, or 0 if none. */
+    long max() {
+        return _max;
+    }
+
+    /** Return an upper bound on the latency not exceeded by a fraction
+     *  P (between 0 and 1) of the recorded latencies, or 0 if none. */
+    long percentile(double p) {
+        long rank = (long) Math.ceil(p * _count);
+        long seen = 0;
+        for (int b = 0; b < _counts.length; b += 1) {
+            seen += _counts[b];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(upperBound(b), _max);
+            }
+        }
+        return _max;
+    }
+
+    /** Forget all recorded latencies. */
+    void reset() {
+        Arrays.fill(_counts, 0);
+        _count = 0;
+        _max = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d samples, p50 %d ns, p90 %d ns, p99 %d ns, "
+                             + "p99.9 %d ns, max %d ns", _count,
+                             percentile(0.5), percentile(0.9),
+                             percentile(0.99), percentile(0.999), _max);
+    }
+
+    /** Return the bucket holding the value V >= 0. */
+    private static int bucket(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) - SUB_BUCKETS);
+    }
+
+    /** Return the largest value in bucket B. */
+    private static long upperBound(int b) {
+        if (b < SUB_BUCKETS) {
+            return b;
+        }
+        int shift = b / SUB_BUCKETS - 1;
+        long sub = b % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** Log2 of the number of buckets per power of two. */
+    private static final int SUB_BITS = 4;
+
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Count of values in each bucket. */
+    private final long[] _counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+
+    /** Number of values recorded. */
+    private long _count;
+
+    /** Largest value recorded. */
+    private long _max;
+
+}
@@ -0,0 +1,94 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/** A source of input lines that keeps track of the byte offset of the
+ *  next unread line.  Lines end with \n, \r\n or \r, and are decoded
+ *  with the default charset, which must encode \n and \r as single
+ *  bytes that occur in no other character (as do ASCII, UTF-8 and the
+ *  ISO-8859 charsets).
+ *  @author Jinho Shin
+ */
+class LineInput {
+
+    /** Lines read from IN, whose first byte is at offset START. */
+    LineInput(InputStream in, long start) {
+        _in = in;
+        _offset = start;
+    }
+
+    /** Return the next line, without its terminator, or null if there
+     *  are no more. */
+    String readLine() throws IOException {
+        int len = 0;
+        while (true) {
+            if (_pos == _limit && !fill()) {
+                return len == 0 ? null : decode(len);
+            }
+            byte b = _buffer[_pos];
+            _pos += 1;
+            _offset += 1;
+            if (b == '\n') {
+                return decode(len);
+            } else if (b == '\r') {
+                if ((_pos < _limit || fill()) && _buffer[_pos] == '\n') {
+                    _pos += 1;
+                    _offset += 1;
+                }
+                return decode(len);
+            }
+            if (len == _line.length) {
+                byte[] line = new byte[2 * len];
+                System.arraycopy(_line, 0, line, 0, len);
+                _line = line;
+            }
+            _line[len] = b;
+            len += 1;
+        }
+    }
+
+    /** Return the byte offset of the next unread line. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Refill my buffer, returning false at end of input. */
+    private boolean fill() throws IOException {
+        _limit = _in.read(_buffer);
+        _pos = 0;
+        if (_limit <= 0) {
+            _limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /** Return the first LEN bytes of _line, decoded. */
+    private String decode(int len) {
+        return new String(_line, 0, len, CHARSET);
+    }
+
+    /** Charset of the input. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Source of bytes. */
+    private final InputStream _in;
+
+    /** Input buffer. */
+    private final byte[] _buffer = new byte[1 << 16];
+
+    /** Bytes of the line being read. */
+    private byte[] _line = new byte[256];
+
+    /** Position of the next unread byte in _buffer. */
+    private int _pos;
+
+    /** Number of valid bytes in _buffer. */
+    private int _limit;
+
+    /** Offset in the input of the next unread byte. */
+    private long _offset;
+
+}
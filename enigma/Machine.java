@@ -1,8 +1,11 @@
 package enigma;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
-
-
+import java.util.function.Consumer;
 
 import static enigma.EnigmaException.*;
 
@@ -19,8 +22,66 @@ class Machine {
         _alphabet = alpha;
         _numRotors = numRotors;
         _numPawls = pawls;
-        _allRotors = allRotors;
+        _allRotors = new RotorRegistry(allRotors);
         _myRotors = new Rotor[_numRotors];
+        _plugboard = plugboardTable(null);
+        _engine = new ReferenceEngine();
+    }
+
+    /** Return a new machine with my alphabet, slots and pawls, and with
+     *  copies of my available rotors, which it may use independently of
+     *  me.  Its rotors are not yet inserted, and it uses the reference
+     *  engine. */
+    Machine copy() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : _allRotors.rotors()) {
+            rotors.add(rotor.copy());
+        }
+        return new Machine(_alphabet, _numRotors, _numPawls, rotors);
+    }
+
+    /** Return a new machine as for copy, but using a new engine of the
+     *  same kind as mine (with my scrambler tables, if I use them), not
+     *  shadowed. */
+    Machine copyWithEngine() {
+        Machine result = copy();
+        result._tables = _tables;
+        result.useEngine(_engine.name());
+        return result;
+    }
+
+    /** Return a SHA-256 digest identifying my configuration: my
+     *  alphabet, slots and pawls, and the name, kind, wiring and notches
+     *  of each of my available rotors.  Machines with the same digest
+     *  convert alike under the same settings. */
+    byte[] identity() {
+        byte[] result = _identity;
+        if (result == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                StringBuilder text = new StringBuilder();
+                text.append(_numRotors).append(' ').append(_numPawls)
+                    .append(' ');
+                for (int i = 0; i < _alphabet.size(); i += 1) {
+                    text.append(_alphabet.toChar(i));
+                }
+                for (Rotor rotor : _allRotors.rotors()) {
+                    text.append('\n').append(rotor.name()).append(' ')
+                        .append(rotor.reflecting() ? 'R'
+                                : rotor.rotates() ? 'M' : 'N');
+                    for (int i = 0; i < _alphabet.size(); i += 1) {
+                        text.append(' ').append(rotor.permutation().permute(i))
+                            .append(rotor.notchAt(i) ? "*" : "");
+                    }
+                }
+                result = digest.digest(
+                    text.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException excp) {
+                throw error("SHA-256 is not available");
+            }
+            _identity = result;
+        }
+        return result.clone();
     }
 
     /** Return the number of rotor slots I have. */
@@ -33,43 +94,55 @@ class Machine {
         return _numPawls;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my available rotors. */
+    RotorRegistry registry() {
+        return _allRotors;
+    }
+
+    /** Return the space of rotor orders and initial positions over my
+     *  available rotors. */
+    Keyspace keyspace() {
+        return new Keyspace(_alphabet, _numRotors, _numPawls,
+                            _allRotors.rotors());
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        int pawlCount = 0;
-        int refCount = 0;
-        for (int i = 0; i < _numRotors; i++) {
-            if (refCount > 1) {
-                throw error("Can't have more than one reflector");
-            }
-            if (pawlCount > _numPawls) {
-                throw error("Too many pawls");
-            }
-            for (Rotor R: _allRotors) {
-                String s = R.name();
-                if (s.equals(rotors[i])) {
-                    Class c = R.getClass();
-                    if (c.equals(Reflector.class)) {
-                        refCount += 1;
-                        if (i != 0) {
-                            throw error("wrong position for reflector");
-                        }
-                    } else if (c.equals(FixedRotor.class)) {
-                        if (i == 0 || i > (_numRotors - _numPawls - 1)) {
-                            throw error("wrong position for fixed rotor");
-                        }
-                    } else if (c.equals(MovingRotor.class)) {
-                        pawlCount += 1;
-                        if (i < (_numRotors -  _numPawls) || i >= _numRotors) {
-                            throw error("wrong position for moving rotor");
-                        }
-                    }
-                    _myRotors[i] = R;
+        System.arraycopy(selectRotors(rotors), 0, _myRotors, 0, _numRotors);
+        _line = null;
+        _engine.load(_myRotors);
+    }
 
+    /** Return the rotors named ROTORS from my set of available rotors
+     *  (ROTORS[0] names the reflector), checking that each may occupy
+     *  its slot, without inserting them. */
+    Rotor[] selectRotors(String[] rotors) {
+        Rotor[] result = new Rotor[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor R = _allRotors.get(rotors[i]);
+            if (R == null) {
+                throw error("rotor not in the machine");
+            } else if (R.reflecting()) {
+                if (i != 0) {
+                    throw error("wrong position for reflector");
+                }
+            } else if (R.rotates()) {
+                if (i < _numRotors - _numPawls) {
+                    throw error("wrong position for moving rotor");
                 }
+            } else if (i == 0 || i > _numRotors - _numPawls - 1) {
+                throw error("wrong position for fixed rotor");
             }
+            result[i] = R;
         }
+        return result;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -79,63 +152,235 @@ class Machine {
         for (int i = 1; i < _numRotors; i++) {
             _myRotors[i].set(setting.charAt(i - 1));
         }
+        _line = null;
+        _engine.load(_myRotors);
+    }
+
+    /** Return the current settings of my rotors after the reflector,
+     *  leftmost first. */
+    int[] positions() {
+        _engine.store(_myRotors);
+        int[] result = new int[_numRotors - 1];
+        for (int i = 1; i < _numRotors; i++) {
+            result[i - 1] = _myRotors[i].setting();
+        }
+        return result;
+    }
+
+    /** Set the settings of my rotors after the reflector to POSITIONS,
+     *  leftmost first, as returned by positions(). */
+    void setPositions(int[] positions) {
+        if (positions.length != _numRotors - 1) {
+            throw error("wrong number of rotor positions");
+        }
+        for (int i = 1; i < _numRotors; i++) {
+            _myRotors[i].set(positions[i - 1]);
+        }
+        _engine.load(_myRotors);
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
-        _plugboard = plugboard;
+        _plugboard = plugboardTable(plugboard);
+    }
+
+    /** Insert the rotors, set their positions and set the plugboard as
+     *  given by SETTINGS, which must have been compiled for me. */
+    void apply(Settings settings) {
+        System.arraycopy(settings.rotors(), 0, _myRotors, 0, _numRotors);
+        int[] positions = settings.positions();
+        for (int i = 1; i < _numRotors; i++) {
+            _myRotors[i].set(positions[i - 1]);
+        }
+        _plugboard = settings.plugboard();
+        _line = settings.line();
+        _engine.load(_myRotors);
+    }
+
+    /** Return the settings line last applied, or, if my rotors have been
+     *  set otherwise since, a description of them. */
+    String settingsLine() {
+        if (_line != null) {
+            return _line;
+        }
+        StringBuilder result = new StringBuilder("*");
+        for (Rotor rotor : _myRotors) {
+            result.append(' ').append(rotor == null ? "?" : rotor.name());
+        }
+        return result.toString();
+    }
+
+    /** Look up conversions in the precomputed scrambler tables in STORE,
+     *  when it has one for my current rotors, instead of computing them.
+     *  A null STORE turns off table lookup, returning to the reference
+     *  engine. */
+    void useTables(TableStore store) {
+        if (store != null) {
+            store.check(this, _allRotors);
+        }
+        _tables = store;
+        useEngine(store == null ? "reference" : "tables");
+    }
+
+    /** Return the engine advancing my rotors and converting characters. */
+    Engine engine() {
+        return _engine;
+    }
+
+    /** Use the engine named NAME: "reference", which works directly on my
+     *  rotors, "compiled", which works on compiled copies of them,
+     *  "shifted" or "fused", which also build tables of conversions by
+     *  each rotor or by all of them together, "adaptive", which chooses
+     *  among the last three (see AdaptiveEngine), or "tables", which uses
+     *  the scrambler tables given to useTables. */
+    void useEngine(String name) {
+        switch (name) {
+        case "reference":
+            useEngine(new ReferenceEngine());
+            break;
+        case "compiled":
+            useEngine(new CompiledEngine(this));
+            break;
+        case "shifted":
+            useEngine(new ShiftedEngine(this));
+            break;
+        case "fused":
+            useEngine(new FusedEngine(this, AdaptiveEngine.BUDGET));
+            break;
+        case "adaptive":
+            useEngine(new AdaptiveEngine(this));
+            break;
+        case "tables":
+            if (_tables == null) {
+                throw error("engine tables needs scrambler tables");
+            }
+            useEngine(new TableEngine(this, _tables));
+            break;
+        default:
+            throw error("unknown engine: %s", name);
+        }
+    }
+
+    /** Use ENGINE, continuing from the current state of my rotors. */
+    void useEngine(Engine engine) {
+        if (_myRotors[0] != null) {
+            _engine.store(_myRotors);
+            engine.load(_myRotors);
+        }
+        _engine = engine;
+    }
+
+    /** Check my current engine against the reference engine on a
+     *  fraction RATE (0 to 1) of messages, sending a description of each
+     *  difference found to REPORT. */
+    void shadowEngine(double rate, Consumer<String> report) {
+        if (rate < 0 || rate > 1) {
+            throw error("shadow rate must be between 0 and 1");
+        } else if (_engine instanceof ReferenceEngine
+                   || _engine instanceof ShadowEngine) {
+            throw error("engine %s cannot be shadowed", _engine.name());
+        }
+        useEngine(new ShadowEngine(this, _engine, rate, report));
+    }
+
+    /** Return PLUGBOARD, whose alphabet may be any subset of mine, as a
+     *  table mapping each index in my alphabet to its image.  Characters
+     *  outside PLUGBOARD's alphabet map to themselves.  A null PLUGBOARD
+     *  is the identity. */
+    int[] plugboardTable(Permutation plugboard) {
+        int[] table = new int[_alphabet.size()];
+        for (int i = 0; i < table.length; i++) {
+            char c = _alphabet.toChar(i);
+            if (plugboard != null && plugboard.alphabet().contains(c)) {
+                char p = plugboard.permute(c);
+                if (!_alphabet.contains(p)) {
+                    throw error("plugboard character %c not in alphabet", p);
+                }
+                table[i] = _alphabet.toInt(p);
+            } else {
+                table[i] = i;
+            }
+        }
+        return table;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        for (int i = 1; i < _numRotors - 1; i++) {
-            boolean prevM = _myRotors[i - 1].getClass() == MovingRotor.class;
-            Rotor cur = _myRotors[i];
-            Rotor next = _myRotors[i + 1];
-            if (next.atNotch() || cur.atNotch() && prevM) {
-                cur.advance();
-            }
-        }
-        _myRotors[_numRotors - 1].advance();
-        Alphabet plugA = _plugboard.alphabet();
-        if (_plugboard != null && plugA.contains(_alphabet.toChar(c))) {
-            c = _alphabet.toInt(_plugboard.permute(_alphabet.toChar(c)));
+        return _plugboard[_engine.convert(_plugboard[c])];
+    }
+
+    /** Return the permutation by which I would convert a character if
+     *  my rotors did not advance first: the plugboard, my rotors at their
+     *  current settings, the reflector, and back again. */
+    Permutation scrambler() {
+        _engine.store(_myRotors);
+        Permutation rotors = Permutation.identity(_alphabet);
+        for (int i = _numRotors - 1; i > 0; i--) {
+            Rotor r = _myRotors[i];
+            rotors = r.permutation().conjugate(r.setting()).compose(rotors);
         }
+        Rotor reflector = _myRotors[0];
+        Permutation plugboard = new Permutation(_alphabet, _plugboard);
+        return plugboard.compose(rotors.inverse())
+            .compose(reflector.permutation()
+                     .conjugate(reflector.setting()).inverse())
+            .compose(rotors).compose(plugboard);
+    }
+
+    /** Returns the result of passing C through my rotors and reflector
+     *  in their current settings, without advancing them or using the
+     *  plugboard or any scrambler table. */
+    int scramble(int c) {
+        _engine.store(_myRotors);
         for (int i = _numRotors - 1; i > 0; i--) {
             c = _myRotors[i].convertForward(c);
         }
         for (int j = 0; j < _numRotors; j++) {
             c = _myRotors[j].convertBackward(c);
         }
-        if (_plugboard != null && plugA.contains(_alphabet.toChar(c))) {
-            c = _alphabet.toInt(_plugboard.permute(_alphabet.toChar(c)));
-        }
         return c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String output = "";
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) != ' ') {
-                int c = _alphabet.toInt(msg.charAt(i));
-                output += _alphabet.toChar(convert(c));
+        char[] result = new char[msg.length()];
+        int n = convert(msg.toCharArray(), msg.length(), result);
+        return new String(result, 0, n);
+    }
+
+    /** Converts the characters MSG[0 .. LEN-1], skipping blanks, as for
+     *  convert(String), storing the results in RESULT, which must have
+     *  room for them.  Returns the number of characters stored. */
+    int convert(char[] msg, int len, char[] result) {
+        long start = _batcher.start();
+        _engine.startMessage();
+        int k = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = msg[i];
+            if (ch != ' ') {
+                if (!_alphabet.contains(ch)) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                result[k] = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+                k += 1;
             }
         }
-        return output;
+        _batcher.end(start, k);
+        return k;
+    }
+
+    /** Record any partly accumulated batch of conversions in the flight
+     *  recorder (see Telemetry). */
+    void flushTelemetry() {
+        _batcher.flush();
     }
 
-    /** @param rotor to check @return if 'rotor' is in allRotors. */
+    /** Return true iff ROTOR names one of my available rotors. */
     boolean hasRotor(String rotor) {
-        for (Rotor R: _allRotors) {
-            if (R.name() == rotor) {
-                return true;
-            }
-        }
-        return false;
+        return _allRotors.contains(rotor);
     }
 
     /** Common alphabet of my rotors. */
@@ -147,13 +392,29 @@ class Machine {
     /** Number of my pawls. */
     private int _numPawls;
 
-    /** Collection of Rotors. */
-    private Collection<Rotor> _allRotors;
+    /** Available rotors, by name. */
+    private RotorRegistry _allRotors;
 
     /** List of Rotors. */
     private Rotor[] _myRotors;
 
-    /** Plugboard Permutation. */
-    private Permutation _plugboard;
+    /** Plugboard, as a table from alphabet index to alphabet index. */
+    private int[] _plugboard;
+
+    /** Precomputed scrambler tables, or null. */
+    private TableStore _tables;
+
+    /** Engine advancing my rotors and converting characters. */
+    private Engine _engine;
+
+    /** Digest of my configuration, or null if not yet computed. */
+    private volatile byte[] _identity;
+
+    /** Conversion events being accumulated. */
+    private final Telemetry.Batcher _batcher = new Telemetry.Batcher();
+
+    /** Settings line last applied, or null if my rotors have been set
+     *  otherwise since. */
+    private String _line;
 
 }
@@ -1,8 +1,16 @@
 package enigma;
 
 import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import static enigma.TestUtils.*;
 
 public class MachineTest {
 
@@ -50,4 +58,397 @@ public class MachineTest {
         String output = m1.convert(input);
         System.out.println(output);
     }
+
+    /** Return a 5-slot, 3-pawl machine with the naval rotors. */
+    Machine navalMachine() {
+        Collection<Rotor> rotors = new ArrayList<Rotor>();
+        rotors.add(new Reflector("B", getNewPermutation(NAVALA.get("B"),
+                                                        UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  getNewPermutation(NAVALA.get("Beta"),
+                                                    UPPER)));
+        rotors.add(new MovingRotor("I", getNewPermutation(NAVALA.get("I"),
+                                                          UPPER), "Q"));
+        rotors.add(new MovingRotor("II", getNewPermutation(NAVALA.get("II"),
+                                                           UPPER), "E"));
+        rotors.add(new MovingRotor("III",
+                                   getNewPermutation(NAVALA.get("III"),
+                                                     UPPER), "V"));
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    @Test
+    public void testSettingsCache() {
+        Machine m = navalMachine();
+        SettingsCache cache = new SettingsCache(m, 2);
+        Settings s = cache.get("* B Beta I II III AAAA (AQ) (EP)");
+        assertSame(s, cache.get("  *  B Beta I\tII III AAAA (AQ)  (EP) "));
+        m.apply(s);
+        assertEquals("IHBDQQMTQZ", m.convert("HELLO WORLD"));
+        cache.get("* B Beta I II III AAAB");
+        cache.get("* B Beta I II III AAAC");
+        assertEquals(2, cache.size());
+        assertNotSame(s, cache.get("* B Beta I II III AAAA (AQ) (EP)"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testUnknownRotor() {
+        Machine m = navalMachine();
+        new SettingsCache(m, 2).get("* B Beta I II IV AAAA");
+    }
+
+    @Test
+    public void testTableStore() throws IOException {
+        File f = File.createTempFile("enigma", ".tables");
+        f.deleteOnExit();
+        Machine source = navalMachine();
+        source.apply(Settings.compile(source, "* B Beta II I III QRST"));
+        TableStore.write(source, f.getPath(), "B Beta I II III A",
+                         "B Beta III II I C");
+        assertEquals("* B Beta II I III QRST", source.settingsLine());
+        assertArrayEquals(new int[] {16, 17, 18, 19}, source.positions());
+        TableStore store = TableStore.open(f.getPath());
+        assertEquals(2, store.size());
+        Machine plain = navalMachine();
+        Machine tabled = navalMachine();
+        tabled.useTables(store);
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        for (String line : new String[] {"* B Beta I II III AQEV (AQ)",
+                                         "* B Beta III II I CDEF",
+                                         "* B Beta I II III BAAA"}) {
+            plain.apply(Settings.compile(plain, line));
+            tabled.apply(Settings.compile(tabled, line));
+            String expected = plain.convert(msg + msg + msg);
+            assertEquals(expected, tabled.convert(msg + msg + msg));
+        }
+    }
+
+    @Test
+    public void testMultiKeyTrial() {
+        String[] candidates = {
+            "* B Beta I II III AAAA (AQ) (EP)",
+            "* B Beta III II I AQEV",
+            "* B Beta I II III ADEU (TD) (KC) (JZ)",
+            "* B Beta II III I ZZZZ",
+        };
+        String cipher = "IHBDQ QMTQZ FROMH ISSHO ULDER HIAWA THAXY";
+        char[] result = new MultiKeyTrial(navalMachine())
+            .decrypt(cipher, candidates);
+        int len = cipher.replace(" ", "").length();
+        assertEquals(len * candidates.length, result.length);
+        Machine m = navalMachine();
+        for (int k = 0; k < candidates.length; k += 1) {
+            m.apply(Settings.compile(m, candidates[k]));
+            String expected = m.convert(cipher);
+            for (int i = 0; i < len; i += 1) {
+                assertEquals(expected.charAt(i),
+                             UPPER.toChar(result[k * len + i]));
+            }
+        }
+    }
+
+    @Test
+    public void testPackedSessions() {
+        String[] settings = {
+            "* B Beta I II III AAAA (AQ) (EP)",
+            "* B Beta III II I AQEV",
+            "* B Beta I II III AAAA (AQ) (EP)",
+        };
+        String msg = "HELLO WORLD FROMH ISSHO ULDER HIAWA THA";
+        PackedSessions sessions = new PackedSessions(navalMachine());
+        int[] ids = new int[settings.length];
+        for (int k = 0; k < settings.length; k += 1) {
+            ids[k] = sessions.open(settings[k]);
+        }
+        assertEquals(3, sessions.size());
+        Machine m = navalMachine();
+        for (int k = 0; k < settings.length; k += 1) {
+            m.apply(Settings.compile(m, settings[k]));
+            assertEquals(m.convert(msg), sessions.convert(ids[k], msg));
+            assertArrayEquals(m.positions(), sessions.positions(ids[k]));
+        }
+        sessions.close(ids[1]);
+        assertEquals(2, sessions.size());
+        assertEquals(ids[1], sessions.open(settings[0]));
+        m.apply(Settings.compile(m, settings[0]));
+        assertEquals(m.convert(msg), sessions.convert(ids[1], msg));
+    }
+
+    @Test
+    public void testClosedSessions() {
+        PackedSessions sessions = new PackedSessions(navalMachine());
+        int id = sessions.open("* B Beta I II III AAAA");
+        sessions.close(id);
+        for (Runnable bad : new Runnable[] {
+                () -> sessions.close(id),
+                () -> sessions.close(id + 1),
+                () -> sessions.close(-1),
+                () -> sessions.convert(id, 0),
+                () -> sessions.reset(id, "* B Beta I II III AAAA"),
+                () -> sessions.positions(id),
+                () -> sessions.open("* B Beta I II IV AAAA") }) {
+            try {
+                bad.run();
+                fail("accepted a closed or unknown session");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        assertEquals(0, sessions.size());
+        int a = sessions.open("* B Beta I II III AAAA"),
+            b = sessions.open("* B Beta I II III AAAA");
+        assertNotEquals(a, b);
+        assertEquals(2, sessions.size());
+    }
+
+    @Test
+    public void testManyRotorSessions() {
+        Alphabet abcd = new Alphabet("ABCD");
+        Collection<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("RF", new Permutation("(AB) (CD)", abcd)));
+        for (int k = 1; k <= 65537; k += 1) {
+            rotors.add(new MovingRotor("R" + k,
+                                       new Permutation(k == 65537 ? "(ABC)"
+                                                       : "", abcd), "A"));
+        }
+        Machine m = new Machine(abcd, 2, 1, rotors);
+        PackedSessions sessions = new PackedSessions(m);
+        String msg = "ABCDABCDDCBA";
+        String[] results = new String[2];
+        String[] lines = {"* RF R1 A", "* RF R65537 A"};
+        for (int k = 0; k < lines.length; k += 1) {
+            int id = sessions.open(lines[k]);
+            m.apply(Settings.compile(m, lines[k]));
+            results[k] = m.convert(msg);
+            assertEquals(lines[k], results[k], sessions.convert(id, msg));
+        }
+        assertNotEquals(results[0], results[1]);
+    }
+
+    @Test
+    public void testEngines() {
+        String settings = "* B Beta I II III AAAA (AQ) (EP)";
+        String msg = "HELLO WORLD FROMH ISSHO ULDER HIAWA THA";
+        Machine m = navalMachine();
+        m.apply(Settings.compile(m, settings));
+        String expected = m.convert(msg);
+        int[] positions = m.positions();
+        for (String engine : new String[] {
+                "compiled", "shifted", "fused", "adaptive" }) {
+            m.useEngine(engine);
+            m.apply(Settings.compile(m, settings));
+            assertEquals(engine, expected, m.convert(msg));
+            assertArrayEquals(engine, positions, m.positions());
+        }
+    }
+
+    @Test
+    public void testScrambler() {
+        Machine m = navalMachine();
+        Settings settings =
+            Settings.compile(m, "* B Beta I II III AXLE (AQ) (EP)");
+        int[] plug = settings.plugboard();
+        m.apply(settings);
+        for (int k = 0; k < 30; k += 1) {
+            Permutation scrambler = m.scrambler();
+            assertTrue(scrambler.derangement());
+            assertEquals("", scrambler.power(2).toString());
+            for (int c = 0; c < 26; c += 1) {
+                assertEquals(plug[m.scramble(plug[c])], scrambler.permute(c));
+            }
+            m.convert(k % 26);
+        }
+    }
+
+    @Test
+    public void testAdaptiveEngine() {
+        assertEquals("fused",
+                     AdaptiveEngine.choose(26, 5, 3, AdaptiveEngine.BUDGET));
+        assertEquals("shifted", AdaptiveEngine.choose(26, 5, 3, 100000));
+        assertEquals("compiled", AdaptiveEngine.choose(26, 5, 3, 1000));
+        assertEquals("shifted",
+                     AdaptiveEngine.choose(1000, 5, 3, AdaptiveEngine.BUDGET));
+        assertEquals("shifted", AdaptiveEngine.choose(26, 5, 3,
+                                                      FusedEngine.bytes(26,
+                                                                        3)));
+
+        Machine m = navalMachine();
+        AdaptiveEngine engine = new AdaptiveEngine(m, 100000, null);
+        m.useEngine(engine);
+        assertNull(engine.strategy());
+        m.insertRotors(new String[] { "B", "Beta", "I", "II", "III" });
+        assertEquals("shifted", engine.strategy());
+        assertTrue(engine.explain().startsWith("shifted (alphabet 26"));
+        engine = new AdaptiveEngine(m, 100000, "compiled");
+        m.useEngine(engine);
+        assertEquals("compiled", engine.strategy());
+        assertTrue(engine.explain().endsWith("overridden)"));
+
+        String settings = "* B Beta I II III AAAA (AQ) (EP)";
+        char[] msg = new char[200000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = (char) ('A' + i * 7 % 26);
+        }
+        char[] expected = new char[msg.length], result = new char[msg.length];
+        Machine ref = navalMachine();
+        ref.apply(Settings.compile(ref, settings));
+        ref.convert(msg, msg.length, expected);
+        FusedEngine fused = new FusedEngine(m, AdaptiveEngine.BUDGET);
+        m.useEngine(fused);
+        m.apply(Settings.compile(m, settings));
+        assertEquals(0, fused.tables());
+        m.convert(msg, msg.length, result);
+        assertEquals(1, fused.tables());
+        assertArrayEquals(expected, result);
+        assertArrayEquals(ref.positions(), m.positions());
+    }
+
+    /** Return a machine with all the naval rotors. */
+    Machine fullNavalMachine() {
+        Collection<Rotor> rotors = new ArrayList<Rotor>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = getNewPermutation(NAVALA.get(name), UPPER);
+            if (name.equals("B") || name.equals("C")) {
+                rotors.add(new Reflector(name, perm));
+            } else if (name.equals("Beta") || name.equals("Gamma")) {
+                rotors.add(new FixedRotor(name, perm));
+            } else {
+                rotors.add(new MovingRotor(name, perm, "Q"));
+            }
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    @Test
+    public void testCopyWithEngine() {
+        String settings = "* B Beta I II III AAAA (AQ) (EP)";
+        for (String name : new String[] { "reference", "compiled", "shifted",
+                                          "fused", "adaptive" }) {
+            Machine m = navalMachine();
+            m.useEngine(name);
+            Machine copy = m.copyWithEngine();
+            assertEquals(name, copy.engine().name());
+            assertNotSame(m.engine(), copy.engine());
+            copy.apply(Settings.compile(copy, settings));
+            assertEquals("IHBDQQMTQZ", copy.convert("HELLO WORLD"));
+        }
+    }
+
+    @Test
+    public void testShiftedBudget() {
+        String[][] orders = {
+            { "B", "Beta", "I", "II", "III" },
+            { "B", "Beta", "IV", "V", "VI" },
+            { "C", "Gamma", "VII", "VIII", "I" },
+            { "B", "Gamma", "II", "IV", "VI" },
+        };
+        Machine m = fullNavalMachine(), ref = fullNavalMachine();
+        ShiftedEngine engine = new ShiftedEngine(m, ShiftedEngine.bytes(26,
+                                                                        5));
+        m.useEngine(engine);
+        for (String[] order : orders) {
+            String settings = "* " + String.join(" ", order) + " AAAA";
+            m.apply(Settings.compile(m, settings));
+            ref.apply(Settings.compile(ref, settings));
+            assertEquals(ref.convert("HELLOWORLD"), m.convert("HELLOWORLD"));
+            assertTrue(engine.tables() <= 5);
+        }
+
+        FusedEngine fused = new FusedEngine(m, ShiftedEngine.bytes(26, 5)
+                                            + 2 * FusedEngine.bytes(26, 3)
+                                            - 1);
+        m.useEngine(fused);
+        char[] msg = new char[200000], result = new char[msg.length];
+        Arrays.fill(msg, 'A');
+        for (String[] order : orders) {
+            m.apply(Settings.compile(m, "* " + String.join(" ", order)
+                                     + " AAAA"));
+            m.convert(msg, msg.length, result);
+            assertEquals(1, fused.tables());
+        }
+    }
+
+    @Test
+    public void testShadowEngine() {
+        String settings = "* B Beta I II III AAAA (AQ) (EP)";
+        Machine m = navalMachine();
+        m.useEngine(new CompiledEngine(m) {
+            @Override
+            public int convert(int c) {
+                _count += 1;
+                int result = super.convert(c);
+                return _count == 8 ? (result + 1) % 26 : result;
+            }
+            private int _count;
+        });
+        ArrayList<String> reports = new ArrayList<>();
+        m.shadowEngine(1.0, reports::add);
+        m.apply(Settings.compile(m, settings));
+        m.convert("HELLO");
+        assertEquals(0, reports.size());
+        m.convert("WORLD");
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).contains("\"" + settings + "\""));
+        assertTrue(reports.get(0).contains("offset 7"));
+    }
+
+    @Test
+    public void testWorkload() {
+        String[] texts = new String[2];
+        for (int k = 0; k < 2; k += 1) {
+            ByteArrayOutputStream input = new ByteArrayOutputStream();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new Workload(navalMachine(), 42)
+                .generate(3, 4, 50, 10, new PrintStream(input),
+                          new PrintStream(output));
+            texts[k] = input + "|" + output;
+        }
+        assertEquals(texts[0], texts[1]);
+        String[] lines = texts[0].split("[|]")[0].split("\n");
+        String[] expected = texts[0].split("[|]")[1].split("\n");
+        assertEquals(15, lines.length);
+        Machine m = navalMachine();
+        for (int i = 0, k = 0; i < lines.length; i += 1) {
+            if (lines[i].startsWith("*")) {
+                m.apply(Settings.compile(m, lines[i]));
+            } else {
+                assertEquals(expected[k],
+                             Main.groups(m.convert(lines[i])));
+                k += 1;
+            }
+        }
+    }
+
+    @Test
+    public void testColumnarBatch() {
+        String[] settings = {
+            "* B Beta I II III AAAA (AQ) (EP)",
+            "* B Beta III II I AQEV",
+            "* B Beta I II III ADEU (TD)",
+            "* B Beta I II III AAAA (AQ) (EP)",
+        };
+        String[] messages = { "HELLO WORLD", "", "FROM HIS SHOULDER", "HI" };
+        StringBuilder text = new StringBuilder();
+        int[] offsets = new int[messages.length + 1];
+        for (int k = 0; k < messages.length; k += 1) {
+            text.append(messages[k]);
+            offsets[k + 1] = text.length();
+        }
+        char[] out = new char[text.length()];
+        int[] outOffsets = new int[offsets.length];
+        int total = new ColumnarBatch(navalMachine())
+            .convert(settings, text.toString().toCharArray(), offsets, out,
+                     outOffsets);
+        Machine m = navalMachine();
+        StringBuilder expected = new StringBuilder();
+        for (int k = 0; k < messages.length; k += 1) {
+            m.apply(Settings.compile(m, settings[k]));
+            String e = m.convert(messages[k]);
+            assertEquals(e, new String(out, outOffsets[k],
+                                       outOffsets[k + 1] - outOffsets[k]));
+            expected.append(e);
+        }
+        assertEquals(expected.length(), total);
+    }
+
 }
@@ -1,12 +1,16 @@
 package enigma;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.Collection;
 import java.util.ArrayList;
-
-import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 import static enigma.EnigmaException.*;
@@ -17,7 +21,49 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, which consists of options followed by 1 to 3
+     *  file names.  The options are
+     *      --tables FILE   use the scrambler tables in FILE, as written
+     *                      by TableStore, where they apply.
+     *      --pipeline      read, convert and write on separate threads.
+     *      --checkpoint FILE  periodically save the state of the run in
+     *                      FILE; requires input and output files.
+     *      --resume        continue the run saved by --checkpoint, if
+     *                      its FILE exists.
+     *      --engine NAME   convert with the engine NAME (reference,
+     *                      compiled, shifted, fused, adaptive or tables;
+     *                      see Machine.useEngine).  The default is tables
+     *                      with --tables, and otherwise adaptive.
+     *      --shadow RATE   check the engine against the reference engine
+     *                      on a fraction RATE of messages, reporting any
+     *                      difference on the standard error.
+     *      --batch DIR     process many input files, writing each output
+     *                      to the same relative path under DIR (see
+     *                      Batch); ARGS[1] is then a directory or glob
+     *                      pattern of input files, and there is no
+     *                      ARGS[2].
+     *      --threads N     process up to N files at once in a batch,
+     *                      or N segments at once with --mapped.
+     *      --index FILE    write to FILE an index of the machine's state
+     *                      every StateIndex.INTERVAL characters, for
+     *                      decrypting parts of the output (see
+     *                      StateIndex); requires uncompressed output.
+     *      --mapped        convert the input file in parallel, straight
+     *                      into the output file, memory-mapped at its
+     *                      final size (see MappedOutput); requires ASCII
+     *                      input and output files.
+     *      --interactive   convert single keystrokes from the standard
+     *                      input as they arrive (see Interactive); there
+     *                      is then no ARGS[1] or ARGS[2].
+     *      --listen PORT   with --interactive, take keystrokes from each
+     *                      connection to PORT in turn instead.
+     *      --cascade CONFIG  pass each character through a further
+     *                      machine configured from the file CONFIG, after
+     *                      those of ARGS[0] and earlier --cascade options
+     *                      (see Cascade).  Each settings line then holds
+     *                      one setting, starting with '*', per machine.
+     *  Input in gzip or zlib format is decompressed as it is read, and
+     *  output to a file whose name ends in .gz is gzip-compressed.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
@@ -37,53 +83,258 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            switch (args[k]) {
+            case "--tables":
+                _tables = TableStore.open(optionArgument(args, k));
+                k += 1;
+                break;
+            case "--pipeline":
+                _pipelined = true;
+                break;
+            case "--checkpoint":
+                _checkpoint = optionArgument(args, k);
+                k += 1;
+                break;
+            case "--resume":
+                _resume = true;
+                break;
+            case "--batch":
+                _batch = optionArgument(args, k);
+                k += 1;
+                break;
+            case "--threads":
+                try {
+                    _threads = Integer.parseInt(optionArgument(args, k));
+                } catch (NumberFormatException excp) {
+                    throw error("bad thread count: %s", args[k + 1]);
+                }
+                k += 1;
+                break;
+            case "--index":
+                _index = optionArgument(args, k);
+                k += 1;
+                break;
+            case "--mapped":
+                _mapped = true;
+                break;
+            case "--interactive":
+                _interactive = true;
+                break;
+            case "--listen":
+                try {
+                    _port = Integer.parseInt(optionArgument(args, k));
+                } catch (NumberFormatException excp) {
+                    throw error("bad port: %s", args[k + 1]);
+                }
+                k += 1;
+                break;
+            case "--engine":
+                _engine = optionArgument(args, k);
+                k += 1;
+                break;
+            case "--cascade":
+                _cascade.add(ConfigReader.open(optionArgument(args, k)));
+                k += 1;
+                break;
+            case "--shadow":
+                try {
+                    _shadow = Double.parseDouble(optionArgument(args, k));
+                } catch (NumberFormatException excp) {
+                    throw error("bad shadow rate: %s", args[k + 1]);
+                }
+                k += 1;
+                break;
+            default:
+                throw error("unknown option: %s", args[k]);
+            }
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _config = ConfigReader.open(args[0]);
+
+        if (!_cascade.isEmpty()
+            && (_interactive || _batch != null || _mapped || _pipelined
+                || _checkpoint != null || _index != null)) {
+            throw error("--cascade cannot be used with --interactive, "
+                        + "--batch, --mapped, --pipeline, --checkpoint or "
+                        + "--index");
+        }
+
+        if (_interactive) {
+            if (args.length != 1 || _batch != null || _pipelined
+                || _checkpoint != null || _index != null) {
+                throw error("--interactive needs just a configuration");
+            }
+            return;
+        } else if (_port >= 0) {
+            throw error("--listen needs --interactive");
+        }
+
+        if (_batch != null) {
+            if (args.length != 2 || _pipelined || _checkpoint != null
+                || _index != null) {
+                throw error("--batch needs a configuration and inputs, "
+                            + "and no --pipeline, --checkpoint or --index");
+            }
+            _batchInputs = args[1];
+            return;
+        }
+
+        if (_mapped) {
+            if (args.length != 3 || _pipelined || _checkpoint != null
+                || _index != null || args[2].endsWith(".gz")) {
+                throw error("--mapped needs input and an uncompressed output "
+                            + "file, and no --pipeline, --checkpoint or "
+                            + "--index");
+            }
+            _inputName = args[1];
+            _outputName = args[2];
+            return;
+        }
 
         if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = Compression.decompress(System.in);
+        }
+
+        if (_index != null && (_pipelined || _checkpoint != null
+                               || args.length > 2 && args[2].endsWith(".gz"))) {
+            throw error("--index needs uncompressed output, and no "
+                        + "--pipeline or --checkpoint");
         }
 
-        if (args.length > 2) {
+        if (_checkpoint != null) {
+            if (args.length < 3 || _pipelined) {
+                throw error("--checkpoint needs input and output files, "
+                            + "and no --pipeline");
+            }
+            if (args[2].endsWith(".gz")) {
+                throw error("--checkpoint cannot write compressed output");
+            }
+            _outputName = args[2];
+        } else if (_resume) {
+            throw error("--resume needs --checkpoint");
+        } else if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
             _output = System.out;
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return the argument of the option ARGS[K]. */
+    private static String optionArgument(String[] args, int k) {
+        if (k + 1 >= args.length) {
+            throw error("option %s needs an argument", args[k]);
+        }
+        return args[k + 1];
+    }
+
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration file named CONFIG. */
+    static Machine readConfig(String config) {
+        return ConfigReader.open(config).read();
+    }
+
+    /** Return a stream reading from the file named NAME, decompressing
+     *  it if it is compressed, unless checkpointing. */
+    private InputStream getInput(String name) {
         try {
-            return new Scanner(new File(name));
+            if (_checkpoint != null) {
+                return new FileInputStream(name);
+            }
+            return Compression.decompress(new FileInputStream(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a PrintStream writing to the file named NAME, compressing
+     *  its contents if NAME ends in .gz. */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            OutputStream out = new FileOutputStream(name);
+            if (name.endsWith(".gz")) {
+                out = Compression.compress(out);
+            }
+            return new PrintStream(new Telemetry.Output(out, "output"));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return _input, recording reads from it in the flight recorder. */
+    private InputStream input() {
+        return new Telemetry.Input(_input, "input");
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
+        if (_interactive) {
+            Interactive.serve(readConfig(), this::configure, _port,
+                              System.err);
+            return;
+        } else if (_batch != null) {
+            Machine M = _config.read();
+            int failures = new Batch(M, this::configure, _batchInputs, _batch,
+                                     _threads).run(System.out);
+            if (failures > 0) {
+                throw error("%d files failed", failures);
+            }
+            return;
+        }
+        if (!_cascade.isEmpty()) {
+            processCascade();
+            return;
+        }
         Machine M = readConfig();
-        if (!_input.hasNext("[*]")) {
+        Telemetry.Run run = new Telemetry.Run();
+        run.begin();
+        run.engine = M.engine().name();
+        try {
+            if (_mapped) {
+                run.mode = "mapped";
+                new MappedOutput(M, this::configure, _inputName, _outputName,
+                                 _threads).run();
+            } else if (_pipelined) {
+                run.mode = "pipeline";
+                new Pipeline(M, new InputStreamReader(input()), _output).run();
+            } else if (_checkpoint != null) {
+                run.mode = "checkpoint";
+                processWithCheckpoints(M);
+            } else if (_index != null) {
+                run.mode = "indexed";
+                processWithIndex(M);
+            } else {
+                run.mode = "serial";
+                processSerially(M);
+            }
+        } finally {
+            M.flushTelemetry();
+            run.commit();
+            if (_output == System.out) {
+                _output.flush();
+            } else if (_output != null) {
+                _output.close();
+            }
+        }
+    }
+
+    /** Apply M to the messages in _input, one line at a time. */
+    private void processSerially(Machine M) {
+        Scanner input = new Scanner(input());
+        if (!input.hasNext("[*]")) {
             throw error("need a setting first");
         }
-        while (_input.hasNextLine()) {
-            String s = _input.nextLine();
+        while (input.hasNextLine()) {
+            String s = input.nextLine();
             if (s.contains("*")) {
                 setUp(M, s);
             } else {
@@ -95,117 +346,202 @@ public final class Main {
     }
 
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Apply the cascade of the machines configured from _config and
+     *  _cascade to the messages in _input, one line at a time. */
+    private void processCascade() {
+        List<Machine> machines = new ArrayList<>();
+        machines.add(readConfig());
+        for (ConfigReader config : _cascade) {
+            Machine M = config.read();
+            configure(M);
+            machines.add(M);
+        }
+        Cascade cascade = new Cascade(machines);
+        Telemetry.Run run = new Telemetry.Run();
+        run.begin();
+        run.engine = machines.get(0).engine().name();
+        run.mode = "cascade";
         try {
-            if (_config.hasNext("\\*|\\(|\\)")) {
-                throw error("wrong format for Alphabets.");
-            }
-            _alphabet = new Alphabet(_config.next());
-            int numRotors = _config.nextInt();
-            int pawls = _config.nextInt();
-            if (pawls >= numRotors || pawls < 0) {
-                throw error("inappropriate numbers");
+            Scanner input = new Scanner(input());
+            InputStart first = new InputStart();
+            while (input.hasNextLine()) {
+                String s = input.nextLine();
+                first.next(s);
+                if (s.contains("*")) {
+                    Settings[] settings = cascade.compile(s);
+                    cascade.apply(settings);
+                    for (Settings compiled : settings) {
+                        Telemetry.settingsApplied(compiled);
+                    }
+                } else {
+                    printMessageLine(cascade.convert(s));
+                }
             }
-            Collection<Rotor> rotors = new ArrayList<Rotor>();
-            while (_config.hasNext()) {
-                rotors.add(readRotor());
+            first.finish();
+        } finally {
+            cascade.flushTelemetry();
+            run.commit();
+            if (_output == System.out) {
+                _output.flush();
+            } else {
+                _output.close();
             }
-            return new Machine(_alphabet, numRotors, pawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            String notches = "", cycles = "";
-            char type = 0;
-            if (_config.hasNext("\\(|\\)")) {
-                throw error("wrong format for name.");
-            }
-            String name = _config.next();
-            String info = _config.next();
-            type = info.charAt(0);
-            if (info.length() > 1) {
-                if (type != 'M') {
-                    throw error("can't have notches on non-moving");
+    /** Apply M to the messages in _input as for process, writing an
+     *  index of its states to _index as we go. */
+    private void processWithIndex(Machine M) {
+        Checkpoint.CountingStream counter =
+            new Checkpoint.CountingStream(_output, 0, null);
+        PrintStream output = new PrintStream(counter, false);
+        LineInput input = new LineInput(input(), 0);
+        try (StateIndex.Writer index =
+             new StateIndex.Writer(M, _index, StateIndex.INTERVAL)) {
+            InputStart first = new InputStart();
+            while (true) {
+                long start = input.offset();
+                String s = input.readLine();
+                if (s == null) {
+                    break;
+                }
+                first.next(s);
+                if (s.contains("*")) {
+                    setUp(M, s);
+                    index.settings(s, input.offset(), counter.count());
+                } else {
+                    output.println(
+                        groups(index.convert(s, start, counter.count())));
                 }
-                notches = info.substring(1);
-            }
-            while (_config.hasNext("\\(.*\\)")) {
-                cycles += _config.next();
-            }
-            Permutation perm = new Permutation(cycles, _alphabet);
-            if (type == 'M') {
-                return new MovingRotor(name, perm, notches);
-            } else if (type == 'N') {
-                return new FixedRotor(name, perm);
-            } else if (type == 'R') {
-                return new Reflector(name, perm);
-            } else {
-                throw error("wrong type of rotor");
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            first.finish();
+        } catch (IOException excp) {
+            throw error("could not read input");
+        } finally {
+            output.flush();
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner line = new Scanner(settings);
-        if (!line.next().equals("*")) {
-            throw error("must start with an asterisk");
-        }
-        String[] rotors = new String[M.numRotors()];
-        for (int i = 0; i < M.numRotors(); i++) {
-            String r = line.next();
-            if (M.hasRotor(r)) {
-                throw error("rotor not in the machine");
+    /** Apply M to the messages in _input as for process, saving
+     *  checkpoints to _checkpoint as we go, and first restoring the
+     *  checkpoint there if _resume. */
+    private void processWithCheckpoints(Machine M) {
+        Checkpoint start = _resume ? Checkpoint.read(_checkpoint) : null;
+        long inputStart = start == null ? 0 : start.input();
+        Checkpoint.CountingStream counter =
+            Checkpoint.openOutput(_outputName,
+                                  start == null ? 0 : start.output());
+        _output =
+            new PrintStream(new Telemetry.Output(counter, "output"), false);
+        Checkpoint.Saver saver =
+            new Checkpoint.Saver(_checkpoint, counter.channel());
+        saver.start();
+        RuntimeException failure = null;
+        try {
+            FileInputStream file = (FileInputStream) _input;
+            if (Compression.compressed(new BufferedInputStream(file, 2))) {
+                throw error("--checkpoint cannot read compressed input");
+            }
+            file.getChannel().position(inputStart);
+            LineInput input =
+                new LineInput(new Telemetry.Input(file, "input"), inputStart);
+            String settings = "";
+            if (start != null && !start.settings().isEmpty()) {
+                settings = start.settings();
+                setUp(M, settings);
+                M.setPositions(start.positions());
+            }
+            InputStart first = new InputStart(!settings.isEmpty());
+            long due = System.nanoTime() + CHECKPOINT_INTERVAL;
+            long lines = 0;
+            for (String s = input.readLine(); s != null;
+                 s = input.readLine()) {
+                first.next(s);
+                if (s.contains("*")) {
+                    setUp(M, s);
+                    settings = s;
+                } else {
+                    printMessageLine(M.convert(s));
+                }
+                lines += 1;
+                if (lines % CHECKPOINT_CHECK == 0
+                    && System.nanoTime() - due >= 0) {
+                    _output.flush();
+                    saver.offer(checkpoint(M, input, counter, settings));
+                    due = System.nanoTime() + CHECKPOINT_INTERVAL;
+                }
+            }
+            first.finish();
+            _output.flush();
+            saver.offer(checkpoint(M, input, counter, settings));
+        } catch (IOException excp) {
+            failure = error("could not read input");
+            throw failure;
+        } catch (RuntimeException excp) {
+            failure = excp;
+            throw excp;
+        } finally {
+            _output.flush();
+            try {
+                saver.finish();
+            } catch (EnigmaException excp) {
+                if (failure == null) {
+                    throw excp;
+                }
+                failure.addSuppressed(excp);
             }
-            rotors[i] = r;
-        }
-        M.insertRotors(rotors);
-        if (!line.hasNext()) {
-            throw error("need rotors settings");
-        }
-        String s = line.next();
-        M.setRotors(s);
-        String pCycle = "";
-        while (line.hasNext("\\(.*\\)")) {
-            String n = line.next();
-            pCycle += n;
         }
-        if (line.hasNext()) {
-            throw error("Wrong setup format.");
+    }
+
+    /** Return a checkpoint of M after the last line read from INPUT,
+     *  whose output has gone to COUNTER, under settings line SETTINGS. */
+    private Checkpoint checkpoint(Machine M, LineInput input,
+                                  Checkpoint.CountingStream counter,
+                                  String settings) {
+        int[] positions = settings.isEmpty() ? new int[0] : M.positions();
+        return new Checkpoint(input.offset(), counter.count(), settings,
+                              positions);
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    private Machine readConfig() {
+        Machine M = _config.read();
+        configure(M);
+        return M;
+    }
+
+    /** Set up M to use the scrambler tables and engine requested by my
+     *  options. */
+    private void configure(Machine M) {
+        M.useTables(_tables);
+        if (_engine != null) {
+            M.useEngine(_engine);
+        } else if (_tables == null) {
+            M.useEngine("adaptive");
         }
-        String pString = "";
-        String[] pList = pCycle.split("\\(|\\)");
-        for (String p: pList) {
-            pString += p;
+        if (_shadow != null) {
+            M.shadowEngine(_shadow,
+                           msg -> System.err.printf("Warning: %s%n", msg));
         }
-        Alphabet pAlphabet = new Alphabet(pString);
-        Permutation plug = new Permutation(pCycle, pAlphabet);
-        M.setPlugboard(plug);
+    }
 
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment.  Settings
+     *  lines seen recently are not compiled again. */
+    private void setUp(Machine M, String settings) {
+        if (_settings == null) {
+            _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+        }
+        Settings compiled = _settings.get(settings);
+        M.apply(compiled);
+        Telemetry.settingsApplied(compiled);
     }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        String output = "";
-        int i = 0;
-        while (i < msg.length()) {
-            String s = String.valueOf(msg.charAt(i));
-            output += msg.charAt(i);
-            if ((i + 1) % 5 == 0) {
-                output += " ";
-            }
-            i += 1;
-        }
+        String output = groups(msg);
         if (_output != null) {
             _output.println(output);
         } else {
@@ -213,15 +549,84 @@ public final class Main {
         }
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** Return MSG in groups of five, each followed by a blank (except
+     *  that the last group may have fewer letters, and is then not). */
+    static String groups(String msg) {
+        StringBuilder result = new StringBuilder(msg.length() * 6 / 5 + 1);
+        for (int i = 0; i < msg.length(); i += 1) {
+            result.append(msg.charAt(i));
+            if ((i + 1) % 5 == 0) {
+                result.append(' ');
+            }
+        }
+        return result.toString();
+    }
 
     /** Source of input messages. */
-    private Scanner _input;
+    private InputStream _input;
 
     /** Source of machine configuration. */
-    private Scanner _config;
+    private ConfigReader _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Name of the checkpoint file, or null if not checkpointing. */
+    private String _checkpoint;
+
+    /** True iff resuming from _checkpoint. */
+    private boolean _resume;
+
+    /** Name of the output file, when checkpointing. */
+    private String _outputName;
+
+    /** Time between checkpoints, in nanoseconds. */
+    static final long CHECKPOINT_INTERVAL = 1_000_000_000L;
+
+    /** Number of lines between checks for a due checkpoint. */
+    static final int CHECKPOINT_CHECK = 256;
+
+    /** True iff messages are processed by a Pipeline. */
+    private boolean _pipelined;
+
+    /** Precomputed scrambler tables, or null. */
+    private TableStore _tables;
+
+    /** Name of the conversion engine, or null for the default. */
+    private String _engine;
+
+    /** Fraction of messages checked against the reference engine, or
+     *  null if none. */
+    private Double _shadow;
+
+    /** Directory receiving batch outputs, or null if not a batch. */
+    private String _batch;
+
+    /** Directory or glob pattern of batch inputs. */
+    private String _batchInputs;
+
+    /** Maximum number of files processed at once in a batch. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** Name of the state index file, or null if none. */
+    private String _index;
+
+    /** True iff converting into a memory-mapped output file. */
+    private boolean _mapped;
+
+    /** Name of the input file, with --mapped. */
+    private String _inputName;
+
+    /** True iff converting keystrokes interactively. */
+    private boolean _interactive;
+
+    /** Port for interactive sessions, or -1 for the standard input. */
+    private int _port = -1;
+
+    /** Configurations of the further machines of a cascade, in
+     *  order. */
+    private final List<ConfigReader> _cascade = new ArrayList<>();
+
+    /** Compiled settings lines for the machine being run. */
+    private SettingsCache _settings;
 }
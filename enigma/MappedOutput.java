@@ -0,0 +1,414 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Main's processing of one input file into one output file by many
+ *  threads at once.  The length of the output is determined by the
+ *  input: each message line yields its non-blank characters, grouped
+ *  in fives, and a line separator, and settings lines yield nothing.
+ *  So a first pass over the input finds the output offset of every
+ *  line, along with the settings and rotor positions at which each
+ *  segment of a few megabytes of lines starts, stepping the rotors
+ *  without converting.  The output file is then created at its final
+ *  size, and each segment is converted by a copy of the machine on a
+ *  pool of threads, straight into a memory-mapped region of the output.
+ *  The output is the same as that of Main's serial processing.
+ *
+ *  Input and output are read and written as bytes, so every character
+ *  in the input must be ASCII.
+ *  @author Jinho Shin
+ */
+class MappedOutput {
+
+    /** A run applying copies of machine M, each first passed to SETUP,
+     *  to the messages in the file named INPUT, writing the results to
+     *  the file named OUTPUT, using up to THREADS threads. */
+    MappedOutput(Machine M, Consumer<Machine> setup, String input,
+                 String output, int threads) {
+        this(M, setup, input, output, threads, SEGMENT);
+    }
+
+    /** As for MappedOutput(M, SETUP, INPUT, OUTPUT, THREADS), but with
+     *  segments of at least SEGMENTSIZE bytes of input. */
+    MappedOutput(Machine M, Consumer<Machine> setup, String input,
+                 String output, int threads, long segmentSize) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _machine = M;
+        _setup = setup;
+        _input = Paths.get(input);
+        _output = Paths.get(output);
+        _threads = threads;
+        _segmentSize = segmentSize;
+        _config = new CompiledConfig(M);
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+    }
+
+    /** Process the input, returning when the output is written. */
+    void run() {
+        long size = scan();
+        try (FileChannel out = FileChannel.open(
+                 _output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel in = FileChannel.open(_input)) {
+            if (size > 0) {
+                out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(_threads, _segments.size())));
+            List<Future<?>> results = new ArrayList<>();
+            for (Segment segment : _segments) {
+                results.add(pool.submit(() -> convert(segment, in, out)));
+            }
+            pool.shutdown();
+            try {
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (ExecutionException excp) {
+                pool.shutdownNow();
+                if (excp.getCause() instanceof EnigmaException) {
+                    throw (EnigmaException) excp.getCause();
+                }
+                throw error("could not convert: %s", excp.getCause());
+            } catch (InterruptedException excp) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw error("interrupted");
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", _output);
+        }
+    }
+
+    /** Return the segments found by the first pass, in order. */
+    List<Segment> segments() {
+        return _segments;
+    }
+
+    /** Read the input, checking it and dividing it into _segments, and
+     *  return the size of the output. */
+    private long scan() {
+        int n = _config.numRotors();
+        int[] order = new int[n];
+        int[] pos = new int[n - 1];
+        Settings settings = null;
+        InputStart start = new InputStart();
+        long inOffset = 0, outOffset = 0;
+        Segment segment = new Segment(0, 0, null, null);
+        try (BufferedInputStream in = new BufferedInputStream(
+                 Files.newInputStream(_input), 1 << 16)) {
+            if (Compression.compressed(in)) {
+                throw error("mapped output cannot read compressed input");
+            }
+            LineScanner lines = new LineScanner(in);
+            while (lines.next()) {
+                start.next(lines.chars());
+                if (lines.settings()) {
+                    settings = _settings.get(lines.text());
+                    _config.order(settings, order, 0);
+                    System.arraycopy(settings.positions(), 0, pos, 0, n - 1);
+                } else {
+                    int chars = lines.characters();
+                    for (int i = 0; i < chars; i += 1) {
+                        _config.step(order, 0, pos, 0);
+                    }
+                    outOffset += chars + chars / 5 + SEPARATOR.length;
+                }
+                inOffset += lines.length();
+                if (inOffset - segment._inStart >= _segmentSize) {
+                    segment.end(inOffset, outOffset);
+                    _segments.add(segment);
+                    segment = new Segment(inOffset, outOffset, settings,
+                                          settings == null ? null
+                                          : pos.clone());
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", _input);
+        }
+        start.finish();
+        if (inOffset > segment._inStart) {
+            segment.end(inOffset, outOffset);
+            _segments.add(segment);
+        }
+        return outOffset;
+    }
+
+    /** Convert SEGMENT of the input read through IN into the output
+     *  written through OUT. */
+    private void convert(Segment segment, FileChannel in, FileChannel out) {
+        Machine M = _machine.copy();
+        _setup.accept(M);
+        SettingsCache settings =
+            new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+        if (segment._settings != null) {
+            M.apply(settings.get(segment._settings.line()));
+            M.setPositions(segment._positions);
+        }
+        try {
+            MappedByteBuffer src =
+                in.map(FileChannel.MapMode.READ_ONLY, segment._inStart,
+                       segment._inEnd - segment._inStart);
+            MappedByteBuffer dst =
+                out.map(FileChannel.MapMode.READ_WRITE, segment._outStart,
+                        segment._outEnd - segment._outStart);
+            char[] text = new char[INITIAL_LENGTH];
+            char[] result = new char[INITIAL_LENGTH];
+            boolean settingsLine = false, skipNewline = false;
+            int len = 0;
+            while (src.hasRemaining()) {
+                byte b = src.get();
+                if (skipNewline) {
+                    skipNewline = false;
+                    if (b == '\n') {
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    skipNewline = b == '\r';
+                } else {
+                    if (len == text.length) {
+                        char[] longer = new char[2 * len];
+                        System.arraycopy(text, 0, longer, 0, len);
+                        text = longer;
+                        result = new char[2 * len];
+                    }
+                    text[len] = (char) b;
+                    len += 1;
+                    settingsLine |= b == '*';
+                    if (src.hasRemaining()) {
+                        continue;
+                    }
+                }
+                if (settingsLine) {
+                    M.apply(settings.get(new String(text, 0, len)));
+                } else {
+                    int count = M.convert(text, len, result);
+                    for (int i = 0; i < count; i += 1) {
+                        dst.put((byte) result[i]);
+                        if ((i + 1) % 5 == 0) {
+                            dst.put((byte) ' ');
+                        }
+                    }
+                    dst.put(SEPARATOR);
+                }
+                len = 0;
+                settingsLine = false;
+            }
+            if (dst.hasRemaining()) {
+                throw error("output of segment at %d has the wrong length",
+                            segment._inStart);
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s or %s", _input, _output);
+        } finally {
+            M.flushTelemetry();
+        }
+    }
+
+    /** A run of whole lines of input, with the state of the machine at
+     *  their start. */
+    static class Segment {
+
+        /** A segment starting at offsets INSTART in the input and
+         *  OUTSTART in the output, under SETTINGS (null before any) with
+         *  rotor positions POSITIONS. */
+        Segment(long inStart, long outStart, Settings settings,
+                int[] positions) {
+            _inStart = inStart;
+            _outStart = outStart;
+            _settings = settings;
+            _positions = positions;
+        }
+
+        /** Set the input and output offsets just past my end to INEND and
+         *  OUTEND. */
+        void end(long inEnd, long outEnd) {
+            _inEnd = inEnd;
+            _outEnd = outEnd;
+        }
+
+        /** Return the input offset of my start. */
+        long inStart() {
+            return _inStart;
+        }
+
+        /** Return the output offset of my start. */
+        long outStart() {
+            return _outStart;
+        }
+
+        /** Input and output offsets of my start and end. */
+        private long _inStart, _outStart, _inEnd, _outEnd;
+
+        /** Settings in effect at my start, or null. */
+        private final Settings _settings;
+
+        /** Rotor positions at my start, or null. */
+        private final int[] _positions;
+    }
+
+    /** The first pass's reader of input lines, which are terminated by
+     *  \n, \r\n or \r.  It keeps only settings lines whole. */
+    private class LineScanner {
+
+        /** A scanner reading from IN. */
+        LineScanner(InputStream in) {
+            _in = in;
+        }
+
+        /** Read the next line, returning false if there are none. */
+        boolean next() throws IOException {
+            _length = 0;
+            _characters = 0;
+            _invalid = -1;
+            _settings = false;
+            _text.setLength(0);
+            int b;
+            while (true) {
+                b = _in.read();
+                if (b < 0) {
+                    return _length > 0;
+                }
+                _length += 1;
+                if (b == '\n') {
+                    return true;
+                } else if (b == '\r') {
+                    _in.mark(1);
+                    if (_in.read() == '\n') {
+                        _length += 1;
+                    } else {
+                        _in.reset();
+                    }
+                    return true;
+                } else if (b >= ASCII) {
+                    throw error("mapped output needs ASCII input");
+                }
+                char c = (char) b;
+                _text.append(c);
+                if (c == '*') {
+                    _settings = true;
+                } else if (c != ' ') {
+                    if (_invalid < 0 && !_alphabet.contains(c)) {
+                        _invalid = c;
+                    }
+                    _characters += 1;
+                }
+            }
+        }
+
+        /** Return the text of the line, without its terminator. */
+        String text() {
+            return _text.toString();
+        }
+
+        /** Return the text of the line, without its terminator, until the
+         *  next line is read. */
+        CharSequence chars() {
+            return _text;
+        }
+
+        /** Return the number of bytes in the line, with its terminator. */
+        int length() {
+            return _length;
+        }
+
+        /** Return true iff the line is a settings line. */
+        boolean settings() {
+            return _settings;
+        }
+
+        /** Return the number of characters the line converts, if it is
+         *  a message line. */
+        int characters() {
+            if (_invalid >= 0) {
+                throw error("character %c not in alphabet", (char) _invalid);
+            }
+            return _characters;
+        }
+
+        /** Source of input. */
+        private final InputStream _in;
+
+        /** Text of the line.  Only settings lines need it, but others
+         *  are checked and counted as they are read. */
+        private final StringBuilder _text = new StringBuilder();
+
+        /** Alphabet of the machine. */
+        private final Alphabet _alphabet = _config.alphabet();
+
+        /** Bytes in the line, with its terminator. */
+        private int _length;
+
+        /** Number of characters converted by the line. */
+        private int _characters;
+
+        /** The first character of the line not in the alphabet, or
+         *  -1. */
+        private int _invalid;
+
+        /** True iff the line contains an asterisk. */
+        private boolean _settings;
+    }
+
+    /** Line separator of the output, as bytes. */
+    private static final byte[] SEPARATOR = System.lineSeparator().getBytes();
+
+    /** Default least input length of a segment, in bytes. */
+    static final long SEGMENT = 1 << 22;
+
+    /** First non-ASCII byte value. */
+    private static final int ASCII = 0x80;
+
+    /** Initial size of line buffers. */
+    private static final int INITIAL_LENGTH = 128;
+
+    /** Machine whose configuration is copied for each segment. */
+    private final Machine _machine;
+
+    /** Applied to each copy of _machine. */
+    private final Consumer<Machine> _setup;
+
+    /** Input file. */
+    private final Path _input;
+
+    /** Output file. */
+    private final Path _output;
+
+    /** Maximum number of threads. */
+    private final int _threads;
+
+    /** Least input length of a segment, in bytes. */
+    private final long _segmentSize;
+
+    /** Compiled rotors, for stepping in the first pass. */
+    private final CompiledConfig _config;
+
+    /** Compiled settings lines. */
+    private final SettingsCache _settings;
+
+    /** Segments of the input, in order. */
+    private final List<Segment> _segments = new ArrayList<>();
+
+}
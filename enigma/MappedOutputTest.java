@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for MappedOutput.
+ *  @author Jinho Shin
+ */
+public class MappedOutputTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings lines used in the tests. */
+    private static final String[] SETTINGS = {
+        "* B Beta I II III AAAA (AQ) (EP)",
+        "* B Beta III I II QZRT (HQ) (EX)"
+    };
+
+    @Test
+    public void testMappedOutput() throws IOException {
+        Machine ref = new MachineTest().navalMachine();
+        StringBuilder input = new StringBuilder("\n");
+        StringBuilder expected = new StringBuilder(System.lineSeparator());
+        for (int i = 0; i < 40; i += 1) {
+            if (i % 7 == 0) {
+                String line = SETTINGS[i / 7 % 2];
+                input.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+                ref.apply(Settings.compile(ref, line));
+            } else {
+                String line =
+                    "HELLO WORLD " + "ABCDEFGHIJKLMNOPQ".substring(i % 17);
+                input.append(line).append(i % 3 == 0 ? "\r" : "\n");
+                expected.append(Main.groups(ref.convert(line)))
+                    .append(System.lineSeparator());
+            }
+        }
+        input.append("FINAL");
+        expected.append(Main.groups(ref.convert("FINAL")))
+            .append(System.lineSeparator());
+
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = dir.resolve("in"), out = dir.resolve("out");
+        Files.write(in, input.toString().getBytes());
+        Files.write(out, new byte[100000]);
+        MappedOutput mapped =
+            new MappedOutput(new MachineTest().navalMachine(),
+                             M -> M.useEngine("compiled"), in.toString(),
+                             out.toString(), 3, 50);
+        mapped.run();
+        assertTrue(mapped.segments().size() > 5);
+        assertEquals(expected.toString(),
+                     new String(Files.readAllBytes(out)));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = dir.resolve("in"), out = dir.resolve("out");
+        String[] inputs = {
+            "HELLO\n", "\n  \n", SETTINGS[0] + "\nHELLO 1\n",
+            SETTINGS[0] + "\nH\u00c9LLO\n"
+        };
+        for (String text : inputs) {
+            Files.write(in, text.getBytes());
+            try {
+                new MappedOutput(new MachineTest().navalMachine(), M -> { },
+                                 in.toString(), out.toString(), 1).run();
+                fail("no error for " + text);
+            } catch (EnigmaException excp) {
+                /* Ignore. */
+            }
+        }
+    }
+
+}
@@ -15,19 +15,33 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        _notchAt = new boolean[perm.size()];
+        for (int i = 0; i < notches.length(); i++) {
+            int n = perm.alphabet().toInt(notches.charAt(i));
+            if (n >= 0) {
+                _notchAt[n] = true;
+            }
+        }
+    }
+
+    @Override
+    boolean rotates() {
+        return true;
     }
 
     @Override
     boolean atNotch() {
-        Permutation p = permutation();
-        Alphabet a = p.alphabet();
-        for (int i = 0; i < _notches.length(); i++) {
-            int n = a.toInt(_notches.charAt(i));
-            if (setting() == n) {
-                return true;
-            }
-        }
-        return false;
+        return _notchAt[setting()];
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
+    }
+
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), permutation(), _notches);
     }
 
     @Override
@@ -38,4 +52,7 @@ class MovingRotor extends Rotor {
     /** Notches for the rotor. */
     private String _notches;
 
+    /** True at the index of each notch. */
+    private final boolean[] _notchAt;
+
 }
@@ -0,0 +1,101 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Trial decryption of one ciphertext under many candidate settings
+ *  lines at once.  The candidates share the compiled rotors of one
+ *  machine, and each step of the trial advances and converts every
+ *  candidate by one character, so that the candidates' small states sit
+ *  side by side in memory.  Results are alphabet indices packed into a
+ *  single array, candidate by candidate, so that they can be scored
+ *  in place.
+ *  @author Jinho Shin
+ */
+class MultiKeyTrial {
+
+    /** A trial using the rotors available to M, which is not itself
+     *  changed. */
+    MultiKeyTrial(Machine M) {
+        _config = new CompiledConfig(M);
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+    }
+
+    /** Return the decryptions of CIPHERTEXT (ignoring blanks) under each
+     *  of CANDIDATES, as for decrypt(String, String[], char[]). */
+    char[] decrypt(String ciphertext, String... candidates) {
+        char[] result =
+            new char[length(ciphertext) * candidates.length];
+        decrypt(ciphertext, candidates, result);
+        return result;
+    }
+
+    /** Store in RESULT the decryptions of CIPHERTEXT (ignoring blanks)
+     *  under each settings line in CANDIDATES, each started afresh.
+     *  Character I of the decryption under candidate K, as an index in
+     *  the alphabet, is stored in RESULT[K * L + I], where L is the
+     *  number of non-blank characters in CIPHERTEXT.  RESULT must have
+     *  room for all the decryptions. */
+    void decrypt(String ciphertext, String[] candidates, char[] result) {
+        int[] cipher = indices(ciphertext);
+        int len = cipher.length, count = candidates.length;
+        int n = _config.numRotors();
+        if (result.length < len * count) {
+            throw error("result array too small");
+        }
+        int[] order = new int[count * n];
+        int[] pos = new int[count * (n - 1)];
+        int[][] plug = new int[count][];
+        for (int k = 0; k < count; k += 1) {
+            Settings s = _settings.get(candidates[k]);
+            _config.order(s, order, k * n);
+            System.arraycopy(s.positions(), 0, pos, k * (n - 1), n - 1);
+            plug[k] = s.plugboard();
+        }
+        for (int i = 0; i < len; i += 1) {
+            int c0 = cipher[i];
+            for (int k = 0, ob = 0, pb = 0; k < count;
+                 k += 1, ob += n, pb += n - 1) {
+                int[] p = plug[k];
+                _config.step(order, ob, pos, pb);
+                int c = _config.scramble(order, ob, pos, pb, p[c0]);
+                result[k * len + i] = (char) p[c];
+            }
+        }
+    }
+
+    /** Return the number of non-blank characters in TEXT. */
+    private static int length(String text) {
+        int result = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) != ' ') {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the alphabet indices of the non-blank characters of
+     *  TEXT. */
+    private int[] indices(String text) {
+        Alphabet alpha = _config.alphabet();
+        int[] result = new int[length(text)];
+        for (int i = 0, k = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c != ' ') {
+                if (!alpha.contains(c)) {
+                    throw error("character %c not in alphabet", c);
+                }
+                result[k] = alpha.toInt(c);
+                k += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Compiled rotors of the machine. */
+    private final CompiledConfig _config;
+
+    /** Compiled candidate settings. */
+    private final SettingsCache _settings;
+
+}
@@ -0,0 +1,296 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A collection of many independent machine sessions in compact form.
+ *  All sessions share the compiled rotors of one machine.  A session is
+ *  identified by a small integer, and its state is just three array
+ *  entries: the positions of its rotors after the reflector, packed
+ *  into a long; the number of its rotor order; and the number of its
+ *  plugboard.  Rotor orders and plugboard tables are interned, so that
+ *  sessions with the same ones share them.  Each session thus takes 16
+ *  bytes.  Sessions are converted directly in this form, without being
+ *  unpacked into Machines.
+ *
+ *  A PackedSessions is not safe for use by several threads at once.
+ *  @author Jinho Shin
+ */
+class PackedSessions {
+
+    /** An empty collection of sessions over the rotors available to M,
+     *  which is not itself changed. */
+    PackedSessions(Machine M) {
+        _config = new CompiledConfig(M);
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+        _size = M.alphabet().size();
+        _bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(_size - 1));
+        _mask = (1L << _bits) - 1;
+        if ((long) _bits * (M.numRotors() - 1) > Long.SIZE) {
+            throw error("too many rotor positions to pack into a session");
+        }
+        _positions = new long[INITIAL_CAPACITY];
+        _orders = new int[INITIAL_CAPACITY];
+        _plugs = new int[INITIAL_CAPACITY];
+    }
+
+    /** Return the number of a new session set up as described by the
+     *  settings line SETTINGS. */
+    int open(String settings) {
+        int id;
+        if (_free.isEmpty()) {
+            id = _count;
+            if (id == _positions.length) {
+                int capacity = 2 * id;
+                _positions = Arrays.copyOf(_positions, capacity);
+                _orders = Arrays.copyOf(_orders, capacity);
+                _plugs = Arrays.copyOf(_plugs, capacity);
+            }
+            _count += 1;
+        } else {
+            id = _free.remove(_free.size() - 1);
+        }
+        try {
+            setUp(id, settings);
+        } catch (EnigmaException excp) {
+            _orders[id] = CLOSED;
+            _free.add(id);
+            throw excp;
+        }
+        return id;
+    }
+
+    /** Set up the open session ID afresh as described by the settings
+     *  line SETTINGS. */
+    void reset(int id, String settings) {
+        check(id);
+        setUp(id, settings);
+    }
+
+    /** Set up session slot ID as described by the settings line
+     *  SETTINGS. */
+    private void setUp(int id, String settings) {
+        Settings s = _settings.get(settings);
+        int n = _config.numRotors();
+        int[] order = new int[n];
+        _config.order(s, order, 0);
+        long state = 0;
+        int[] positions = s.positions();
+        for (int i = n - 2; i >= 0; i -= 1) {
+            state = (state << _bits) | positions[i];
+        }
+        _positions[id] = state;
+        _orders[id] = intern(_orderIds, _orderTable, order);
+        _plugs[id] = intern(_plugIds, _plugTable, s.plugboard());
+    }
+
+    /** Discard the open session ID, whose number may be reused by
+     *  open. */
+    void close(int id) {
+        check(id);
+        _orders[id] = CLOSED;
+        _free.add(id);
+    }
+
+    /** Return the number of open sessions. */
+    int size() {
+        return _count - _free.size();
+    }
+
+    /** Return the result of converting C (an alphabet index) in session
+     *  ID, after first advancing its rotors. */
+    int convert(int id, int c) {
+        check(id);
+        int[] order = _orderTable.get(_orders[id]);
+        int[] plug = _plugTable.get(_plugs[id]);
+        long state = step(order, _positions[id]);
+        _positions[id] = state;
+        return plug[scramble(order, state, plug[c])];
+    }
+
+    /** Return the conversion of MSG in session ID, skipping blanks, as
+     *  for Machine.convert(String). */
+    String convert(int id, String msg) {
+        Alphabet alpha = _config.alphabet();
+        StringBuilder result = new StringBuilder(msg.length());
+        for (int i = 0; i < msg.length(); i += 1) {
+            char ch = msg.charAt(i);
+            if (ch != ' ') {
+                if (!alpha.contains(ch)) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                result.append(alpha.toChar(convert(id, alpha.toInt(ch))));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the positions of the rotors after the reflector in session
+     *  ID, leftmost first, as for Machine.positions. */
+    int[] positions(int id) {
+        check(id);
+        int[] result = new int[_config.numRotors() - 1];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = get(_positions[id], i);
+        }
+        return result;
+    }
+
+    /** Check that ID is the number of an open session. */
+    private void check(int id) {
+        if (id < 0 || id >= _count || _orders[id] == CLOSED) {
+            throw error("no open session %d", id);
+        }
+    }
+
+    /** Return STATE advanced as Machine.convert advances the rotors of
+     *  ORDER. */
+    private long step(int[] order, long state) {
+        int last = order.length - 1;
+        long result = state;
+        for (int i = 1; i < last; i += 1) {
+            int r = order[i];
+            if (_config.moving(r)) {
+                int p = get(state, i - 1);
+                if (_config.notch(order[i + 1], get(state, i))
+                    || _config.notch(r, p) && _config.moving(order[i - 1])) {
+                    result = set(result, i - 1, p + 1 == _size ? 0 : p + 1);
+                }
+            }
+        }
+        if (_config.moving(order[last])) {
+            int p = get(state, last - 1);
+            result = set(result, last - 1, p + 1 == _size ? 0 : p + 1);
+        }
+        return result;
+    }
+
+    /** Return the result of passing C through the rotors of ORDER in
+     *  STATE, without the plugboard. */
+    private int scramble(int[] order, long state, int c) {
+        int n = _size;
+        for (int i = order.length - 1; i > 0; i -= 1) {
+            int s = get(state, i - 1);
+            int t = c + s;
+            c = _config.forward(order[i], t >= n ? t - n : t) - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        c = _config.backward(order[0], c);
+        for (int i = 1; i < order.length; i += 1) {
+            int s = get(state, i - 1);
+            int t = c + s;
+            c = _config.backward(order[i], t >= n ? t - n : t) - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        return c;
+    }
+
+    /** Return the position in STATE of rotor I after the reflector. */
+    private int get(long state, int i) {
+        return (int) ((state >>> (i * _bits)) & _mask);
+    }
+
+    /** Return STATE with the position of rotor I after the reflector
+     *  replaced by P. */
+    private long set(long state, int i, int p) {
+        int shift = i * _bits;
+        return (state & ~(_mask << shift)) | ((long) p << shift);
+    }
+
+    /** Return the number of TABLE in TABLES, adding it if it is new,
+     *  where IDS maps the contents of each table to its number. */
+    private static int intern(HashMap<Contents, Integer> ids,
+                              ArrayList<int[]> tables, int[] table) {
+        Contents k = new Contents(table);
+        Integer result = ids.get(k);
+        if (result == null) {
+            result = tables.size();
+            ids.put(k, result);
+            tables.add(table);
+        }
+        return result;
+    }
+
+    /** The contents of an int array, as a hash key. */
+    private static final class Contents {
+
+        /** The contents of TABLE, which must not change afterwards. */
+        Contents(int[] table) {
+            _table = table;
+            _hash = Arrays.hashCode(table);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Contents
+                && Arrays.equals(_table, ((Contents) obj)._table);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The array. */
+        private final int[] _table;
+
+        /** Hash code of _table. */
+        private final int _hash;
+    }
+
+    /** Rotor order number of a closed session. */
+    private static final int CLOSED = -1;
+
+    /** Initial number of session slots. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Compiled rotors shared by all sessions. */
+    private final CompiledConfig _config;
+
+    /** Compiled settings lines. */
+    private final SettingsCache _settings;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Bits per packed rotor position. */
+    private final int _bits;
+
+    /** Mask of the low _bits bits. */
+    private final long _mask;
+
+    /** Packed rotor positions of each session. */
+    private long[] _positions;
+
+    /** Rotor order number of each session, or CLOSED. */
+    private int[] _orders;
+
+    /** Plugboard number of each session. */
+    private int[] _plugs;
+
+    /** Number of session numbers ever used. */
+    private int _count;
+
+    /** Closed session numbers available for reuse. */
+    private final ArrayList<Integer> _free = new ArrayList<>();
+
+    /** Interned rotor orders. */
+    private final ArrayList<int[]> _orderTable = new ArrayList<>();
+
+    /** Number of each interned rotor order, by contents. */
+    private final HashMap<Contents, Integer> _orderIds = new HashMap<>();
+
+    /** Interned plugboard tables. */
+    private final ArrayList<int[]> _plugTable = new ArrayList<>();
+
+    /** Number of each interned plugboard table, by contents. */
+    private final HashMap<Contents, Integer> _plugIds = new HashMap<>();
+
+}
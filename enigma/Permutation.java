@@ -1,5 +1,9 @@
 package enigma;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -15,13 +19,97 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = _inverse[i] = i;
+        }
+        boolean[] used = new boolean[alphabet.size()];
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char c = cycles.charAt(i);
+            if (c == '(') {
+                if (start >= 0) {
+                    throw error("nested '(' in cycles");
+                }
+                start = i + 1;
+            } else if (c == ')') {
+                if (start < 0) {
+                    throw error("unmatched ')' in cycles");
+                }
+                addCycle(cycles.substring(start, i), used);
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(c)) {
+                throw error("character %c outside of a cycle", c);
+            }
+        }
+        if (start >= 0) {
+            throw error("unmatched '(' in cycles");
+        }
+    }
+
+    /** The permutation of ALPHABET taking each index I to IMAGES[I], which
+     *  must contain each index exactly once. */
+    Permutation(Alphabet alphabet, int[] images) {
+        if (images.length != alphabet.size()) {
+            throw error("permutation of the wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = images.clone();
+        _inverse = new int[images.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < images.length; i += 1) {
+            int k = images[i];
+            if (k < 0 || k >= images.length || _inverse[k] >= 0) {
+                throw error("not a permutation");
+            }
+            _inverse[k] = i;
+        }
+    }
+
+    /** A permutation of ALPHABET with images FORWARD and inverse images
+     *  INVERSE, which are taken, not copied. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
+    /** Return the identity permutation of ALPHABET. */
+    static Permutation identity(Alphabet alphabet) {
+        return new Permutation("", alphabet);
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        _cycles += cycle;
+     *  c0c1...cm, ignoring whitespace.  USED marks the indices already in
+     *  some cycle. */
+    private void addCycle(String cycle, boolean[] used) {
+        int first = -1, prev = -1;
+        for (int i = 0; i < cycle.length(); i++) {
+            char c = cycle.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (!_alphabet.contains(c)) {
+                throw error("character %c not in alphabet", c);
+            }
+            int k = _alphabet.toInt(c);
+            if (used[k]) {
+                throw error("character %c in more than one cycle", c);
+            }
+            used[k] = true;
+            if (prev < 0) {
+                first = k;
+            } else {
+                _forward[prev] = k;
+                _inverse[k] = prev;
+            }
+            prev = k;
+        }
+        if (prev >= 0) {
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -35,59 +123,19 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return alphabet().size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        if (!_alphabet.contains(_alphabet.toChar(p))) {
-            throw new EnigmaException("Character not in cycle");
-        } else if (_cycles.equals("") || _cycles.equals(" ")) {
-            return p;
-        } else {
-            char head = _cycles.charAt(0);
-            for (int i = 0; i < _cycles.length() - 1; i++) {
-                char cur = _cycles.charAt(i);
-                char next = _cycles.charAt(i + 1);
-                if (cur == '(') {
-                    head = next;
-                }
-                if (_alphabet.toInt(cur) == p) {
-                    if (next == ')') {
-                        return _alphabet.toInt(head);
-                    }
-                    return _alphabet.toInt(next);
-                }
-            }
-        }
-        return p;
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        if (!_alphabet.contains(_alphabet.toChar(c))) {
-            throw new EnigmaException("Character not in cycle");
-        } else if (_cycles.equals("") || _cycles.equals(" ")) {
-            return c;
-        } else {
-            char tail = _cycles.charAt(_cycles.length() - 1);
-            for (int i = _cycles.length() - 1; i > 0; i--) {
-                char cur = _cycles.charAt(i);
-                char next = _cycles.charAt(i - 1);
-                if (cur == ')') {
-                    tail = next;
-                }
-                if (_alphabet.toInt(cur) == c) {
-                    if (next == '(') {
-                        return _alphabet.toInt(tail);
-                    }
-                    return _alphabet.toInt(next);
-                }
-            }
-        }
-        return c;
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -95,50 +143,16 @@ class Permutation {
     char permute(char p) {
         if (!_alphabet.contains(p)) {
             throw new EnigmaException("Character not in cycle");
-        } else if (_cycles.equals("") || _cycles.equals(" ")) {
-            return p;
-        } else {
-            char head = _cycles.charAt(0);
-            for (int i = 0; i < _cycles.length() - 1; i++) {
-                char cur = _cycles.charAt(i);
-                char next = _cycles.charAt(i + 1);
-                if (cur == '(') {
-                    head = next;
-                }
-                if (cur == p) {
-                    if (next == ')') {
-                        return head;
-                    }
-                    return next;
-                }
-            }
         }
-        return p;
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
         if (!_alphabet.contains(c)) {
             throw new EnigmaException("Character not in cycle");
-        } else if (_cycles.equals("") || _cycles.equals(" ")) {
-            return c;
-        } else {
-            char tail = _cycles.charAt(_cycles.length() - 1);
-            for (int i = _cycles.length() - 1; i > 0; i--) {
-                char cur = _cycles.charAt(i);
-                char next = _cycles.charAt(i - 1);
-                if (cur == ')') {
-                    tail = next;
-                }
-                if (cur == c) {
-                    if (next == '(') {
-                        return tail;
-                    }
-                    return next;
-                }
-            }
         }
-        return c;
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -146,13 +160,124 @@ class Permutation {
         return _alphabet;
     }
 
+    /** Return the permutation that applies FIRST and then me (that is,
+     *  taking P to permute(FIRST.permute(P))).  FIRST must be of the same
+     *  size. */
+    Permutation compose(Permutation first) {
+        if (first.size() != size()) {
+            throw error("permutations of different sizes");
+        }
+        int[] forward = new int[size()], inverse = new int[size()];
+        for (int p = 0; p < forward.length; p += 1) {
+            int k = _forward[first._forward[p]];
+            forward[p] = k;
+            inverse[k] = p;
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(_alphabet, _inverse.clone(), _forward.clone());
+    }
+
+    /** Return me applied K times (my inverse applied -K times, if K is
+     *  negative).  Each cycle is advanced K places at once, so this takes
+     *  time proportional to my size, whatever K is. */
+    Permutation power(long k) {
+        int[] forward = new int[size()], inverse = new int[size()];
+        boolean[] done = new boolean[size()];
+        int[] cycle = new int[size()];
+        for (int start = 0; start < forward.length; start += 1) {
+            if (done[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int p = start; !done[p]; p = _forward[p]) {
+                done[p] = true;
+                cycle[len] = p;
+                len += 1;
+            }
+            int shift = (int) Math.floorMod(k, (long) len);
+            for (int i = 0; i < len; i += 1) {
+                int j = i + shift >= len ? i + shift - len : i + shift;
+                forward[cycle[i]] = cycle[j];
+                inverse[cycle[j]] = cycle[i];
+            }
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return me conjugated by a shift of S: the permutation taking P to
+     *  permute(P + S) - S (modulo my size), which is how a rotor with my
+     *  wiring converts P at setting S (see Rotor.convertForward). */
+    Permutation conjugate(int s) {
+        int n = size();
+        int shift = wrap(s);
+        int[] forward = new int[n], inverse = new int[n];
+        for (int p = 0; p < n; p += 1) {
+            int t = p + shift >= n ? p + shift - n : p + shift;
+            int k = _forward[t] - shift;
+            k = k < 0 ? k + n : k;
+            forward[p] = k;
+            inverse[k] = p;
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return my cycles, each starting with its smallest index, in
+     *  order of their first elements, including cycles of length 1. */
+    int[][] cycles() {
+        List<int[]> result = new ArrayList<>();
+        boolean[] done = new boolean[size()];
+        for (int start = 0; start < done.length; start += 1) {
+            if (done[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int p = start; !done[p]; p = _forward[p]) {
+                done[p] = true;
+                len += 1;
+            }
+            int[] cycle = new int[len];
+            for (int i = 0, p = start; i < len; i += 1, p = _forward[p]) {
+                cycle[i] = p;
+            }
+            result.add(cycle);
+        }
+        return result.toArray(new int[0][]);
+    }
+
+    /** Return the image of each index under me, as a new array. */
+    int[] toArray() {
+        return _forward.clone();
+    }
+
+    /** Return me in the cycle notation accepted by the constructor,
+     *  omitting cycles of length 1. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int[] cycle : cycles()) {
+            if (cycle.length > 1) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(');
+                for (int p : cycle) {
+                    result.append(_alphabet.toChar(p));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _alphabet.size(); i++) {
-            char c = _alphabet.toChar(i);
-            char p = permute(c);
-            if (c == p) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
@@ -160,8 +285,11 @@ class Permutation {
     }
 
     /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
+    private final Alphabet _alphabet;
+
+    /** Image of each index under this permutation. */
+    private final int[] _forward;
 
-    /** Cycles for the permutation. */
-    private String _cycles;
+    /** Image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
 }
@@ -182,4 +182,59 @@ public class PermutationTest {
                 + "LMNOPQRSTUVWXYZ"));
         assertEquals(false, p2.derangement());
     }
+
+    @Test
+    public void testAlgebra() {
+        Alphabet alpha = getNewAlphabet();
+        Permutation p = getNewPermutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                          + "(IV) (JZ) (S)", alpha);
+        Permutation q = getNewPermutation("(AB) (CDEF)", alpha);
+        Permutation pq = p.compose(q);
+        Permutation inv = p.inverse();
+        for (int i = 0; i < 26; i += 1) {
+            assertEquals(p.permute(q.permute(i)), pq.permute(i));
+            assertEquals(i, pq.invert(pq.permute(i)));
+            assertEquals(p.invert(i), inv.permute(i));
+            assertEquals(i, p.compose(inv).permute(i));
+        }
+        assertEquals("(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ)",
+                     p.toString());
+        assertEquals("(AURXQHPTLE) (BWNK) (CYOM) (DGF) (IV) (JZ)",
+                     inv.toString());
+        Permutation cube = p.power(3);
+        for (int i = 0; i < 10; i += 1) {
+            assertEquals("TPHQXRUAEL".charAt(i),
+                         cube.permute("AELTPHQXRU".charAt(i)));
+        }
+        assertEquals(p.power(-1).toString(), inv.toString());
+        assertEquals("", p.power(60).toString());
+        assertEquals(p.power(7).toString(), p.power(67L).toString());
+        assertEquals(p.toString(),
+                     new Permutation(alpha, p.toArray()).toString());
+        int[][] cycles = p.cycles();
+        assertEquals(7, cycles.length);
+        assertArrayEquals(new int[] { 1, 10, 13, 22 }, cycles[1]);
+    }
+
+    @Test
+    public void testConjugate() {
+        Alphabet alpha = getNewAlphabet();
+        Permutation p = getNewPermutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                          + "(IV) (JZ) (S)", alpha);
+        Rotor rotor = new MovingRotor("I", p, "Q");
+        for (int s = 0; s < 26; s += 1) {
+            rotor.set(s);
+            Permutation shifted = p.conjugate(s);
+            for (int i = 0; i < 26; i += 1) {
+                assertEquals(rotor.convertForward(i), shifted.permute(i));
+                assertEquals(rotor.convertBackward(i), shifted.invert(i));
+            }
+        }
+        assertEquals(p.conjugate(-3).toString(), p.conjugate(23).toString());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNotAPermutation() {
+        new Permutation(getNewAlphabet("ABC"), new int[] { 0, 1, 1 });
+    }
 }
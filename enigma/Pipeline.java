@@ -0,0 +1,302 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A pipelined version of Main's processing of messages, in which one
+ *  thread reads input lines, a second looks ahead for settings lines
+ *  and compiles them, a third (the caller of run) applies the compiled
+ *  settings and converts message lines, and a fourth formats the
+ *  results in groups of five and writes them.  Since settings lines are
+ *  compiled ahead of time, the converting thread only swaps in prepared
+ *  rotors and plugboard at each settings line, which hides nearly all
+ *  of the cost of frequent settings changes between short messages.
+ *  Lines pass between the threads through a RingBuffer of preallocated
+ *  slots, whose buffers grow only when a line is longer than any seen
+ *  before, so that steady-state processing allocates nothing per
+ *  message line.  The output is the same as that of Main's serial
+ *  processing.
+ *  @author Jinho Shin
+ */
+class Pipeline {
+
+    /** A pipeline applying machine M to the lines of INPUT and printing
+     *  the results on OUTPUT. */
+    Pipeline(Machine M, Reader input, PrintStream output) {
+        _machine = M;
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+        _input = input;
+        _output = output;
+        _ring = new RingBuffer<Line>(CAPACITY, WRITE + 1, Line::new);
+    }
+
+    /** Process all my input, returning when the output is written. */
+    void run() {
+        Thread reader = new Thread(this::read, "Pipeline-reader");
+        Thread preparer = new Thread(this::prepare, "Pipeline-settings");
+        Thread writer = new Thread(this::write, "Pipeline-writer");
+        reader.start();
+        preparer.start();
+        writer.start();
+        convert();
+        try {
+            reader.join();
+            preparer.join();
+            writer.join();
+        } catch (InterruptedException excp) {
+            _ring.abort();
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** Stage READ: read lines of input into slots. */
+    private void read() {
+        long seq;
+        for (seq = 0; _ring.await(READ, seq); seq += 1) {
+            Line line = _ring.slot(seq);
+            try {
+                if (!readLine(line)) {
+                    _start.finish();
+                    line.kind = END;
+                } else {
+                    if (!_start.started()) {
+                        _start.next(CharBuffer.wrap(line.text, 0,
+                                                    line.length));
+                    }
+                    line.kind = TEXT;
+                }
+            } catch (IOException excp) {
+                line.fail(error("could not read input"));
+            } catch (RuntimeException excp) {
+                line.fail(excp);
+            }
+            _ring.release(READ, seq);
+            if (line.kind != TEXT) {
+                break;
+            }
+        }
+    }
+
+    /** Stage PREPARE: compile settings lines. */
+    private void prepare() {
+        for (long seq = 0; _ring.await(PREPARE, seq); seq += 1) {
+            Line line = _ring.slot(seq);
+            line.settings = null;
+            if (line.kind == TEXT) {
+                try {
+                    prepareLine(line);
+                } catch (RuntimeException excp) {
+                    line.fail(excp);
+                }
+            }
+            _ring.release(PREPARE, seq);
+            if (line.kind != TEXT) {
+                break;
+            }
+        }
+    }
+
+    /** Stage CONVERT: apply settings lines and convert message lines. */
+    private void convert() {
+        for (long seq = 0; _ring.await(CONVERT, seq); seq += 1) {
+            Line line = _ring.slot(seq);
+            if (line.kind == TEXT) {
+                try {
+                    convertLine(line);
+                } catch (RuntimeException excp) {
+                    line.fail(excp);
+                }
+            }
+            _ring.release(CONVERT, seq);
+            if (line.kind != TEXT) {
+                break;
+            }
+        }
+    }
+
+    /** Stage WRITE: write converted lines. */
+    private void write() {
+        BufferedWriter out =
+            new BufferedWriter(new OutputStreamWriter(_output), 1 << 16);
+        try {
+            for (long seq = 0; _ring.await(WRITE, seq); seq += 1) {
+                Line line = _ring.slot(seq);
+                if (line.kind == TEXT) {
+                    if (line.outLength >= 0) {
+                        writeGroups(out, line.converted, line.outLength);
+                        out.newLine();
+                    }
+                } else {
+                    _error = line.error;
+                    break;
+                }
+                _ring.release(WRITE, seq);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            _error = error("could not write output");
+        } finally {
+            _ring.abort();
+        }
+    }
+
+    /** Compile LINE into its settings if it is a settings line. */
+    private void prepareLine(Line line) {
+        for (int i = 0; i < line.length; i += 1) {
+            if (line.text[i] == '*') {
+                line.settings =
+                    _settings.get(new String(line.text, 0, line.length));
+                return;
+            }
+        }
+    }
+
+    /** Write the first LEN characters of CHARS to OUT in groups of
+     *  five, as Main does. */
+    private static void writeGroups(BufferedWriter out, char[] chars,
+                                    int len) throws IOException {
+        for (int i = 0; i < len; i += 5) {
+            int n = Math.min(5, len - i);
+            out.write(chars, i, n);
+            if (n == 5) {
+                out.write(' ');
+            }
+        }
+    }
+
+    /** Apply LINE's settings to my machine if it is a settings line, and
+     *  otherwise convert it, leaving the formatting to stage WRITE. */
+    private void convertLine(Line line) {
+        if (line.settings != null) {
+            _machine.apply(line.settings);
+            Telemetry.settingsApplied(line.settings);
+            line.outLength = -1;
+            return;
+        }
+        if (line.converted.length < line.length) {
+            line.converted = new char[line.length];
+        }
+        line.outLength =
+            _machine.convert(line.text, line.length, line.converted);
+    }
+
+    /** Read the next line of input, without its terminator, into LINE.
+     *  Lines end with \n, \r\n or \r.  Returns false if there are no
+     *  more lines. */
+    private boolean readLine(Line line) throws IOException {
+        line.length = 0;
+        while (true) {
+            if (_pos == _limit) {
+                _limit = _input.read(_buffer);
+                _pos = 0;
+                if (_limit <= 0) {
+                    _limit = 0;
+                    return line.length > 0;
+                }
+            }
+            char c = _buffer[_pos];
+            _pos += 1;
+            if (_skipNewline) {
+                _skipNewline = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            if (c == '\n') {
+                return true;
+            } else if (c == '\r') {
+                _skipNewline = true;
+                return true;
+            }
+            if (line.length == line.text.length) {
+                char[] text = new char[2 * line.length];
+                System.arraycopy(line.text, 0, text, 0, line.length);
+                line.text = text;
+            }
+            line.text[line.length] = c;
+            line.length += 1;
+        }
+    }
+
+    /** A slot holding one line as it passes through the pipeline. */
+    private static class Line {
+        /** Characters of the input line. */
+        private char[] text = new char[INITIAL_LENGTH];
+        /** Number of characters in text. */
+        private int length;
+        /** Converted characters. */
+        private char[] converted = new char[INITIAL_LENGTH];
+        /** Compiled settings, if this is a settings line, or null. */
+        private Settings settings;
+        /** Number of characters in converted, or -1 if there is no
+         *  output. */
+        private int outLength;
+        /** TEXT, END or FAILED. */
+        private int kind;
+        /** The error that ended processing, if kind is FAILED. */
+        private RuntimeException error;
+
+        /** Mark this line as ending processing with error EXCP. */
+        void fail(RuntimeException excp) {
+            kind = FAILED;
+            error = excp;
+        }
+    }
+
+    /** Stages of the ring. */
+    private static final int READ = 0, PREPARE = 1, CONVERT = 2, WRITE = 3;
+
+    /** Kinds of line: an input line, end of input, and an error. */
+    private static final int TEXT = 0, END = 1, FAILED = 2;
+
+    /** Number of slots in the ring. */
+    static final int CAPACITY = 1024;
+
+    /** Initial size of line buffers. */
+    private static final int INITIAL_LENGTH = 128;
+
+    /** Machine converting messages. */
+    private final Machine _machine;
+
+    /** Compiled settings lines, used only by the PREPARE stage. */
+    private final SettingsCache _settings;
+
+    /** Source of input. */
+    private final Reader _input;
+
+    /** Destination of output. */
+    private final PrintStream _output;
+
+    /** Ring of line slots. */
+    private final RingBuffer<Line> _ring;
+
+    /** Input buffer. */
+    private final char[] _buffer = new char[1 << 16];
+
+    /** Position of the next unread character in _buffer. */
+    private int _pos;
+
+    /** Number of valid characters in _buffer. */
+    private int _limit;
+
+    /** True iff the last line ended with \r, so that a following \n is
+     *  part of its terminator. */
+    private boolean _skipNewline;
+
+    /** Check that the input starts with a settings line. */
+    private final InputStart _start = new InputStart();
+
+    /** Error ending processing, or null. */
+    private volatile RuntimeException _error;
+
+}
@@ -0,0 +1,132 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/** The suite of all JUnit tests for Pipeline and RingBuffer.
+ *  @author Jinho Shin
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "ABCDEF 3 2\nRF R (AB) (CD) (EF)\nR1 MA (BCD) (EFA)\nR2 MC\n";
+
+    /** Return the output of a pipeline over CONFIG given INPUT. */
+    private String run(String input) {
+        return run(input, null);
+    }
+
+    /** Return the output of a pipeline over CONFIG given INPUT, storing
+     *  the error it ends with, if any, in ERROR[0] if ERROR is not null,
+     *  and otherwise throwing it. */
+    private String run(String input, RuntimeException[] error) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        try {
+            new Pipeline(new ConfigReader(CONFIG).read(),
+                         new StringReader(input), out).run();
+        } catch (RuntimeException excp) {
+            if (error == null) {
+                throw excp;
+            }
+            error[0] = excp;
+        }
+        out.flush();
+        return bytes.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    /** Return the output of Main's serial processing of INPUT, a
+     *  sequence of settings and message lines, over CONFIG. */
+    private static String serial(String input) {
+        Machine M = new ConfigReader(CONFIG).read();
+        StringBuilder result = new StringBuilder();
+        for (String line : input.split("\n")) {
+            if (line.contains("*")) {
+                M.apply(Settings.compile(M, line));
+            } else {
+                result.append(Main.groups(M.convert(line))).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testPipeline() {
+        assertEquals("ECAED \n\nECAED \nECAED CFABC FD\n",
+                     run("* RF R1 R2 AA\r\nABCDE\n\n"
+                         + "* RF R1 R2 AA\rAB CDE\n* RF R1 R2 AA\n"
+                         + "ABCDEABCDEAB"));
+    }
+
+    @Test
+    public void testManyLines() {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5 * Pipeline.CAPACITY; i += 1) {
+            input.append("* RF R1 R2 AA\nABCDE\n");
+            expected.append("ECAED \n");
+        }
+        assertEquals(expected.toString(), run(input.toString()));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNoSettings() {
+        run("\nABCDE\n");
+    }
+
+    @Test
+    public void testSettingsAhead() {
+        String[] settings = {
+            "* RF R1 R2 AA", "* RF R2 R1 BC (AF)", "* RF R1 R2 FE (BD) (CE)",
+            "* RF R2 R1 DA",
+        };
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 3 * Pipeline.CAPACITY; i += 1) {
+            if (i % 7 == 0) {
+                input.append(settings[i / 7 % settings.length]).append('\n');
+            }
+            for (int k = 0; k <= i % 11; k += 1) {
+                input.append("ABCDEF".charAt((i + k) % 6));
+            }
+            input.append('\n');
+        }
+        assertEquals(serial(input.toString()), run(input.toString()));
+    }
+
+    @Test
+    public void testBadSettingsInOrder() {
+        StringBuilder input = new StringBuilder("* RF R1 R2 AA\n");
+        for (int i = 0; i < Pipeline.CAPACITY / 2; i += 1) {
+            input.append(i % 5 == 0 ? "* RF R2 R1 AB\n" : "ABCDE\n");
+        }
+        String good = input.toString();
+        input.append("* RF R2 R9 AA\n");
+        for (int i = 0; i < Pipeline.CAPACITY / 4; i += 1) {
+            input.append("ABCDE\n");
+        }
+        RuntimeException[] error = new RuntimeException[1];
+        assertEquals(serial(good), run(input.toString(), error));
+        assertTrue(error[0] instanceof EnigmaException);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadSettings() {
+        StringBuilder input = new StringBuilder("* RF R1 R2 AA\n");
+        for (int i = 0; i < 3 * Pipeline.CAPACITY; i += 1) {
+            input.append("ABCDE\n");
+        }
+        run(input.append("* RF R2 R9 AA\nABC\n").toString());
+    }
+
+}
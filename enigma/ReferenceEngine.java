@@ -0,0 +1,48 @@
+package enigma;
+
+/** The engine that works directly on a Machine's Rotors and their
+ *  Permutations.  It is the definition of the results of all other
+ *  engines.
+ *  @author Jinho Shin
+ */
+class ReferenceEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "reference";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        _rotors = rotors;
+    }
+
+    @Override
+    public void store(Rotor[] rotors) {
+    }
+
+    @Override
+    public int convert(int c) {
+        int n = _rotors.length;
+        for (int i = 1; i < n - 1; i++) {
+            boolean prevM = _rotors[i - 1].getClass() == MovingRotor.class;
+            Rotor cur = _rotors[i];
+            Rotor next = _rotors[i + 1];
+            if (next.atNotch() || cur.atNotch() && prevM) {
+                cur.advance();
+            }
+        }
+        _rotors[n - 1].advance();
+        for (int i = n - 1; i > 0; i--) {
+            c = _rotors[i].convertForward(c);
+        }
+        for (int j = 0; j < n; j++) {
+            c = _rotors[j].convertBackward(c);
+        }
+        return c;
+    }
+
+    /** The rotors, reflector first. */
+    private Rotor[] _rotors;
+
+}
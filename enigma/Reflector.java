@@ -13,6 +13,16 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation());
+    }
+
+    @Override
+    boolean reflecting() {
+        return true;
+    }
+
     @Override
     void set(int posn) {
         if (posn != 0) {
@@ -0,0 +1,291 @@
+package enigma;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** An opt-in, bounded cache of the results of converting a message
+ *  afresh under a settings line, for services that see the same
+ *  requests again and again.  Entries are keyed by a SHA-256 digest of
+ *  the machine's configuration (see Machine.identity), the normalized
+ *  settings line and the message, so one cache may serve any number of
+ *  machines, of any configurations, on any number of threads.
+ *  Conversions are done on each thread's own copy of a machine, using
+ *  the same kind of engine (see Machine.copyWithEngine), so the
+ *  machines given are never changed, hit or miss.
+ *
+ *  The cache is divided into stripes by key, each with its own lock,
+ *  which is held only to look up or store an entry, never while
+ *  converting.  Each stripe is a segmented LRU: new entries go into a
+ *  probationary segment, and move to a protected segment (of up to
+ *  four fifths of the stripe) when used again, so that a burst of
+ *  one-off requests cannot flush out the requests that recur.  Each
+ *  stripe holds at most its share of both a number of entries and an
+ *  estimate of the bytes they take.
+ *  @author Jinho Shin
+ */
+class ResultCache {
+
+    /** A cache holding at most MAXENTRIES results, taking about at most
+     *  MAXBYTES bytes, divided into STRIPES stripes. */
+    ResultCache(int maxEntries, long maxBytes, int stripes) {
+        if (maxEntries < stripes || maxBytes < stripes || stripes < 1) {
+            throw error("bad result cache limits");
+        }
+        _stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i += 1) {
+            _stripes[i] = new Stripe(maxEntries / stripes,
+                                     maxBytes / stripes);
+        }
+    }
+
+    /** A cache holding at most MAXENTRIES results, taking about at most
+     *  MAXBYTES bytes. */
+    ResultCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, STRIPES);
+    }
+
+    /** Return the conversion of MESSAGE by M, as by Machine.convert,
+     *  immediately after applying the settings line SETTINGS.  M is not
+     *  changed: on a miss, the conversion is done on this thread's copy
+     *  of M. */
+    String convert(Machine M, String settings, String message) {
+        String line = Settings.normalize(settings);
+        Key key = new Key(M.identity(), line, message);
+        Stripe stripe = _stripes[(key.hashCode() & Integer.MAX_VALUE)
+                                 % _stripes.length];
+        String result = stripe.get(key);
+        if (result != null) {
+            _hits.increment();
+            return result;
+        }
+        _misses.increment();
+        Machine copy =
+            _copies.get().computeIfAbsent(M, Machine::copyWithEngine);
+        copy.apply(Settings.compile(copy, line));
+        result = copy.convert(message);
+        stripe.put(key, result);
+        return result;
+    }
+
+    /** Return the number of requests answered from the cache. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of requests converted. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of entries evicted. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    /** Return the number of entries cached. */
+    int size() {
+        int result = 0;
+        for (Stripe stripe : _stripes) {
+            synchronized (stripe) {
+                result += stripe.size();
+            }
+        }
+        return result;
+    }
+
+    /** Return the estimated number of bytes taken by the entries. */
+    long bytes() {
+        long result = 0;
+        for (Stripe stripe : _stripes) {
+            synchronized (stripe) {
+                result += stripe._bytes;
+            }
+        }
+        return result;
+    }
+
+    /** Remove all entries, leaving the metrics unchanged. */
+    void clear() {
+        for (Stripe stripe : _stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits(), total = hits + misses();
+        return String.format("%d hits, %d misses (%.1f%% hit rate), "
+                             + "%d evictions, %d entries, %d bytes", hits,
+                             total - hits,
+                             total == 0 ? 0.0 : 100.0 * hits / total,
+                             evictions(), size(), bytes());
+    }
+
+    /** Return the estimated number of bytes taken by an entry whose
+     *  result is RESULT. */
+    private static long cost(String result) {
+        return ENTRY_BYTES + 2L * result.length();
+    }
+
+    /** A cache key: a digest of a configuration, settings line and
+     *  message. */
+    private static final class Key {
+
+        /** The key for message MESSAGE under settings line LINE, on a
+         *  machine whose configuration has digest IDENTITY. */
+        Key(byte[] identity, String line, String message) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(identity);
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(message.getBytes(StandardCharsets.UTF_8));
+                _digest = digest.digest();
+            } catch (NoSuchAlgorithmException excp) {
+                throw error("SHA-256 is not available");
+            }
+            _hash = Arrays.hashCode(_digest);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                && Arrays.equals(_digest, ((Key) obj)._digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** SHA-256 digest of my parts. */
+        private final byte[] _digest;
+
+        /** Hash code of _digest. */
+        private final int _hash;
+    }
+
+    /** One stripe of the cache: a segmented LRU, guarded by its own
+     *  lock. */
+    private final class Stripe {
+
+        /** A stripe holding at most MAXENTRIES entries, taking about at
+         *  most MAXBYTES bytes. */
+        Stripe(int maxEntries, long maxBytes) {
+            _maxEntries = Math.max(1, maxEntries);
+            _maxBytes = maxBytes;
+            _maxProtected = _maxEntries * PROTECTED_SHARE / 5;
+        }
+
+        /** Return the result cached for KEY, or null, promoting it to
+         *  the protected segment. */
+        synchronized String get(Key key) {
+            String result = _protected.get(key);
+            if (result != null) {
+                return result;
+            }
+            result = _probation.remove(key);
+            if (result != null) {
+                _protected.put(key, result);
+                if (_protected.size() > _maxProtected) {
+                    Iterator<Map.Entry<Key, String>> eldest =
+                        _protected.entrySet().iterator();
+                    Map.Entry<Key, String> demoted = eldest.next();
+                    eldest.remove();
+                    _probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+            return result;
+        }
+
+        /** Cache RESULT for KEY in the probationary segment, evicting
+         *  entries as needed. */
+        synchronized void put(Key key, String result) {
+            if (_protected.containsKey(key) || _probation.containsKey(key)) {
+                return;
+            }
+            _probation.put(key, result);
+            _bytes += cost(result);
+            while (size() > _maxEntries || _bytes > _maxBytes) {
+                LinkedHashMap<Key, String> victims =
+                    _probation.isEmpty() ? _protected : _probation;
+                Iterator<Map.Entry<Key, String>> eldest =
+                    victims.entrySet().iterator();
+                _bytes -= cost(eldest.next().getValue());
+                eldest.remove();
+                _evictions.increment();
+            }
+        }
+
+        /** Return the number of entries. */
+        int size() {
+            return _probation.size() + _protected.size();
+        }
+
+        /** Remove all entries. */
+        void clear() {
+            _probation.clear();
+            _protected.clear();
+            _bytes = 0;
+        }
+
+        /** Maximum number of entries. */
+        private final int _maxEntries;
+
+        /** Maximum estimated bytes. */
+        private final long _maxBytes;
+
+        /** Maximum number of protected entries. */
+        private final int _maxProtected;
+
+        /** Entries used once, least recently used first. */
+        private final LinkedHashMap<Key, String> _probation =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Entries used more than once, least recently used first. */
+        private final LinkedHashMap<Key, String> _protected =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Estimated bytes taken by the entries. */
+        private long _bytes;
+    }
+
+    /** Default number of stripes. */
+    static final int STRIPES = 16;
+
+    /** Fifths of a stripe's entries that may be protected. */
+    private static final int PROTECTED_SHARE = 4;
+
+    /** Estimated bytes taken by an entry besides its result's
+     *  characters. */
+    private static final long ENTRY_BYTES = 160;
+
+    /** Stripes of the cache. */
+    private final Stripe[] _stripes;
+
+    /** Number of hits. */
+    private final LongAdder _hits = new LongAdder();
+
+    /** Number of misses. */
+    private final LongAdder _misses = new LongAdder();
+
+    /** Number of evictions. */
+    private final LongAdder _evictions = new LongAdder();
+
+    /** Each thread's copies of the machines it has converted with, by
+     *  original. */
+    private final ThreadLocal<Map<Machine, Machine>> _copies =
+        ThreadLocal.withInitial(WeakHashMap::new);
+
+}
@@ -0,0 +1,165 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for ResultCache.
+ *  @author Jinho Shin
+ */
+public class ResultCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings used in the tests. */
+    private static final String SETTINGS =
+        "* B Beta I II III AAAA (AQ) (EP)";
+
+    /** Return the conversion of MESSAGE under SETTINGS by a fresh naval
+     *  machine. */
+    private static String expected(String settings, String message) {
+        Machine M = new MachineTest().navalMachine();
+        M.apply(Settings.compile(M, settings));
+        return M.convert(message);
+    }
+
+    @Test
+    public void testHits() {
+        ResultCache cache = new ResultCache(100, 1 << 20);
+        Machine M = new MachineTest().navalMachine();
+        M.apply(Settings.compile(M, "* B Beta III II I QRST"));
+        int[] before = M.positions();
+        assertEquals("IHBDQQMTQZ", cache.convert(M, SETTINGS, "HELLO WORLD"));
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+        assertArrayEquals(before, M.positions());
+        assertEquals("IHBDQQMTQZ",
+                     cache.convert(M, "  *  B Beta I\tII III AAAA (AQ) (EP)",
+                                   "HELLO WORLD"));
+        assertEquals(1, cache.hits());
+        assertArrayEquals(before, M.positions());
+        assertEquals("* B Beta III II I QRST", M.settingsLine());
+        assertEquals(expected(SETTINGS, "HELLO"),
+                     cache.convert(M, SETTINGS, "HELLO"));
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+        assertTrue(cache.bytes() > 0);
+        assertTrue(cache.toString().startsWith("1 hits, 2 misses"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void testIdentity() {
+        Machine naval = new MachineTest().navalMachine();
+        MachineTest t = new MachineTest();
+        Collection<Rotor> rotors = new ArrayList<Rotor>();
+        rotors.add(new Reflector("B", t.getNewPermutation(NAVALA.get("B"),
+                                                          UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  t.getNewPermutation(NAVALA.get("Beta"),
+                                                      UPPER)));
+        rotors.add(new MovingRotor("I", t.getNewPermutation(NAVALA.get("I"),
+                                                            UPPER), "Q"));
+        rotors.add(new MovingRotor("II",
+                                   t.getNewPermutation(NAVALA.get("II"),
+                                                       UPPER), "E"));
+        rotors.add(new MovingRotor("III",
+                                   t.getNewPermutation(NAVALA.get("III"),
+                                                       UPPER), "A"));
+        Machine other = new Machine(UPPER, 5, 3, rotors);
+        assertArrayEquals(naval.identity(),
+                          new MachineTest().navalMachine().identity());
+        assertFalse(Arrays.equals(naval.identity(), other.identity()));
+
+        ResultCache cache = new ResultCache(100, 1 << 20);
+        String message = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        String first = cache.convert(naval, SETTINGS, message);
+        String second = cache.convert(other, SETTINGS, message);
+        assertEquals(2, cache.misses());
+        assertNotEquals(first, second);
+        other.apply(Settings.compile(other, SETTINGS));
+        assertEquals(other.convert(message), second);
+    }
+
+    @Test
+    public void testEviction() {
+        ResultCache cache = new ResultCache(10, 1 << 20, 1);
+        Machine M = new MachineTest().navalMachine();
+        for (int i = 0; i < 3; i += 1) {
+            cache.convert(M, SETTINGS, "HOT" + (char) ('A' + i));
+            cache.convert(M, SETTINGS, "HOT" + (char) ('A' + i));
+        }
+        for (int i = 0; i < 50; i += 1) {
+            cache.convert(M, SETTINGS,
+                          "COLD" + (char) ('A' + i % 26)
+                          + (char) ('A' + i / 26));
+            assertTrue(cache.size() <= 10);
+        }
+        assertEquals(43, cache.evictions());
+        long hits = cache.hits();
+        for (int i = 0; i < 3; i += 1) {
+            cache.convert(M, SETTINGS, "HOT" + (char) ('A' + i));
+        }
+        assertEquals(hits + 3, cache.hits());
+
+        ResultCache small = new ResultCache(1000, 2000, 1);
+        for (int i = 0; i < 100; i += 1) {
+            small.convert(M, SETTINGS, "MESSAGE" + (char) ('A' + i % 26)
+                          + (char) ('A' + i / 26));
+            assertTrue(small.bytes() <= 2000);
+        }
+        assertTrue(small.evictions() > 0);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadLimits() {
+        new ResultCache(4, 1 << 20, 8);
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        ResultCache cache = new ResultCache(64, 1 << 20, 4);
+        String[] messages = new String[20];
+        String[] expected = new String[messages.length];
+        for (int i = 0; i < messages.length; i += 1) {
+            messages[i] = "MESSAGE" + (char) ('A' + i);
+            expected[i] = expected(SETTINGS, messages[i]);
+        }
+        boolean[] ok = new boolean[4];
+        Thread[] threads = new Thread[ok.length];
+        for (int t = 0; t < threads.length; t += 1) {
+            final int k = t;
+            threads[t] = new Thread(() -> {
+                Machine M = new MachineTest().navalMachine();
+                boolean good = true;
+                for (int i = 0; i < 500; i += 1) {
+                    int j = (i * 7 + k) % messages.length;
+                    good &= expected[j].equals(cache.convert(M, SETTINGS,
+                                                             messages[j]));
+                }
+                ok[k] = good;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean good : ok) {
+            assertTrue(good);
+        }
+        assertEquals(2000, cache.hits() + cache.misses());
+        assertTrue(cache.hits() >= 2000 - 4 * messages.length);
+    }
+
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A fixed ring of preallocated slots passed, in order, through a
+ *  sequence of stages, each run by a single thread.  Slot number SEQ
+ *  (counting from 0, mapped onto the ring modulo its capacity) is
+ *  worked on by stage 0, then stage 1, and so on, and is reused by
+ *  stage 0 once the last stage has released it.  Each stage's cursor is
+ *  written only by that stage's thread, so every pair of adjacent stages
+ *  forms a single-producer, single-consumer queue needing no locks.
+ *  @author Jinho Shin
+ */
+class RingBuffer<T> {
+
+    /** A ring of CAPACITY slots, a power of 2, made by FACTORY, passing
+     *  through STAGES stages. */
+    @SuppressWarnings("unchecked")
+    RingBuffer(int capacity, int stages, Supplier<T> factory) {
+        if (capacity < 1 || (capacity & (capacity - 1)) != 0) {
+            throw error("ring capacity must be a power of 2");
+        }
+        _slots = (T[]) new Object[capacity];
+        for (int i = 0; i < capacity; i += 1) {
+            _slots[i] = factory.get();
+        }
+        _mask = capacity - 1;
+        _stages = stages;
+        _cursors = new AtomicLongArray(stages * PAD);
+    }
+
+    /** Return the slot holding sequence number SEQ. */
+    T slot(long seq) {
+        return _slots[(int) (seq & _mask)];
+    }
+
+    /** Wait until STAGE may work on sequence number SEQ, which must be
+     *  one more than the last SEQ it released.  Returns false if the ring
+     *  has been aborted. */
+    boolean await(int stage, long seq) {
+        int idle = 0;
+        while (!_aborted) {
+            if (stage == 0) {
+                if (seq - cursor(_stages - 1) < _slots.length) {
+                    return true;
+                }
+            } else if (seq < cursor(stage - 1)) {
+                return true;
+            }
+            idle += 1;
+            if (idle < SPINS) {
+                Thread.onSpinWait();
+            } else if (idle < SPINS + YIELDS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        return false;
+    }
+
+    /** Record that STAGE is done with sequence number SEQ, handing it to
+     *  the next stage. */
+    void release(int stage, long seq) {
+        _cursors.lazySet(stage * PAD, seq + 1);
+    }
+
+    /** Make all current and future calls to await return false. */
+    void abort() {
+        _aborted = true;
+    }
+
+    /** Return the number of slots released by STAGE. */
+    private long cursor(int stage) {
+        return _cursors.get(stage * PAD);
+    }
+
+    /** Spacing of the cursors, in longs, keeping each on its own cache
+     *  line. */
+    private static final int PAD = 16;
+
+    /** Number of busy-wait iterations before yielding. */
+    private static final int SPINS = 256;
+
+    /** Number of yields before parking. */
+    private static final int YIELDS = 64;
+
+    /** Time to park while idle. */
+    private static final long PARK_NANOS = 20_000;
+
+    /** The slots. */
+    private final T[] _slots;
+
+    /** Capacity - 1. */
+    private final int _mask;
+
+    /** Number of stages. */
+    private final int _stages;
+
+    /** Number of slots released by each stage. */
+    private final AtomicLongArray _cursors;
+
+    /** True once the ring is aborted. */
+    private volatile boolean _aborted;
+
+}
@@ -82,6 +82,18 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would allow the rotor to my left to advance
+     *  when at setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
+    /** Return a new rotor like me, at its 0 setting.  Its permutation is
+     *  shared with mine. */
+    Rotor copy() {
+        return new Rotor(_name, _permutation);
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
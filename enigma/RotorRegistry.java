@@ -0,0 +1,73 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/** The rotors available to a machine, indexed by name.  Each rotor also
+ *  has a number, its position in the order in which rotors were added.
+ *  @author Jinho Shin
+ */
+class RotorRegistry {
+
+    /** A registry containing ROTORS.  Of rotors with the same name, the
+     *  last one wins. */
+    RotorRegistry(Collection<Rotor> rotors) {
+        for (Rotor r : rotors) {
+            add(r);
+        }
+    }
+
+    /** Add ROTOR, replacing any rotor of the same name. */
+    void add(Rotor rotor) {
+        Integer k = _index.get(rotor.name());
+        if (k == null) {
+            _index.put(rotor.name(), _rotors.size());
+            _rotors.add(rotor);
+        } else {
+            _rotors.set(k, rotor);
+        }
+    }
+
+    /** Return true iff I contain a rotor named NAME. */
+    boolean contains(String name) {
+        return _index.containsKey(name);
+    }
+
+    /** Return the rotor named NAME, or null if there is none. */
+    Rotor get(String name) {
+        Integer k = _index.get(name);
+        return k == null ? null : _rotors.get(k);
+    }
+
+    /** Return the number of the rotor named NAME, or -1 if there is
+     *  none. */
+    int indexOf(String name) {
+        Integer k = _index.get(name);
+        return k == null ? -1 : k;
+    }
+
+    /** Return rotor number K. */
+    Rotor get(int k) {
+        return _rotors.get(k);
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _rotors.size();
+    }
+
+    /** Return all my rotors, in order of their numbers. */
+    List<Rotor> rotors() {
+        return Collections.unmodifiableList(_rotors);
+    }
+
+    /** Rotors in order of addition. */
+    private final ArrayList<Rotor> _rotors = new ArrayList<>();
+
+    /** Number of each rotor, by name. */
+    private final HashMap<String, Integer> _index = new HashMap<>();
+
+}
@@ -0,0 +1,185 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.LongConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** A key-search worker.  Run as a separate process by KeySearch, it
+ *  reads commands, one per line, from the standard input:
+ *      SHARD ID START END    test the keys of ranks START .. END-1
+ *                            in Gray-code order (see Keyspace)
+ *      QUIT                  exit
+ *  and answers each SHARD with any number of
+ *      HIT ID KEY            key KEY deciphers the crib
+ *      PROGRESS ID COUNT     COUNT keys of shard ID tested so far
+ *  lines, followed by
+ *      DONE ID
+ *  on the standard output.
+ *  @author Jinho Shin
+ */
+public final class SearchWorker {
+
+    /** Serve shards for the configuration file ARGS[0], ciphertext
+     *  ARGS[1] and crib ARGS[2] (see the class comment). */
+    public static void main(String... args) {
+        try {
+            if (args.length != 3) {
+                throw error("usage: SearchWorker CONFIG CIPHERTEXT CRIB");
+            }
+            new SearchWorker(Main.readConfig(args[0]), args[1], args[2])
+                .serve(new BufferedReader(new InputStreamReader(System.in)),
+                       System.out);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A worker that tries keys of M against CIPHERTEXT, looking for
+     *  those whose decipherment begins with CRIB.  Spaces in either
+     *  are ignored. */
+    SearchWorker(Machine M, String ciphertext, String crib) {
+        _machine = M;
+        _keys = M.keyspace();
+        _cipher = toInts(M.alphabet(), ciphertext);
+        _crib = toInts(M.alphabet(), crib);
+        if (_crib.length == 0 || _crib.length > _cipher.length) {
+            throw error("crib must be non-empty and no longer than the "
+                        + "ciphertext");
+        }
+        _machine.setPlugboard(new Permutation("", new Alphabet("")));
+    }
+
+    /** Return my keyspace. */
+    Keyspace keyspace() {
+        return _keys;
+    }
+
+    /** Test the keys of ranks START .. END-1 in Gray-code order, passing
+     *  each one that deciphers my crib to HITS, in increasing order, and
+     *  the number of keys tested so far to PROGRESS every
+     *  PROGRESS_INTERVAL keys.  Returns the number of hits.
+     *
+     *  The keys are walked by a GrayWalk, whose scrambler tables are of
+     *  the positions Q at which the first character is converted.  Each
+     *  Q stands for the key P that is Q with the rightmost rotor one step
+     *  back, which is a one-to-one correspondence.  When stepping P
+     *  does lead to Q, as it does unless a notch intervenes, the table
+     *  rules out most keys by the first character of the crib alone;
+     *  otherwise, and for the keys not ruled out, the machine tries the
+     *  whole crib. */
+    int search(long start, long end, LongConsumer hits,
+               LongConsumer progress) {
+        GrayWalk walk = new GrayWalk(_machine, start, end);
+        CompiledConfig config = walk.config();
+        int n = config.alphabet().size(), last = config.numRotors() - 2;
+        boolean shift = config.numPawls() > 0;
+        int[] posn = new int[last + 1], stepped = new int[last + 1];
+        long order = -1;
+        ArrayList<Long> found = new ArrayList<>();
+        while (walk.next()) {
+            int[] q = walk.positions();
+            System.arraycopy(q, 0, posn, 0, posn.length);
+            long key = walk.key();
+            if (shift) {
+                posn[last] = q[last] == 0 ? n - 1 : q[last] - 1;
+                key += posn[last] - q[last];
+            }
+            System.arraycopy(posn, 0, stepped, 0, posn.length);
+            config.step(walk.order(), 0, stepped, 0);
+            if (!Arrays.equals(stepped, q)
+                || walk.scrambler()[_cipher[0]] == _crib[0]) {
+                if (key / _keys.positions() != order) {
+                    order = key / _keys.positions();
+                    _machine.insertRotors(_keys.rotors(key));
+                }
+                _machine.setPositions(posn);
+                if (matches()) {
+                    found.add(key);
+                }
+            }
+            if ((walk.rank() - start + 1) % PROGRESS_INTERVAL == 0) {
+                progress.accept(walk.rank() - start + 1);
+            }
+        }
+        Collections.sort(found);
+        for (long key : found) {
+            hits.accept(key);
+        }
+        return found.size();
+    }
+
+    /** Return true iff my machine, in its current state, deciphers the
+     *  start of my ciphertext to my crib. */
+    private boolean matches() {
+        for (int i = 0; i < _crib.length; i += 1) {
+            if (_machine.convert(_cipher[i]) != _crib[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Answer the commands on IN, writing replies to OUT. */
+    private void serve(BufferedReader in, PrintStream out)
+        throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("QUIT")) {
+                break;
+            } else if (!words[0].equals("SHARD") || words.length != 4) {
+                throw error("bad command: %s", line);
+            }
+            long id = Long.parseLong(words[1]);
+            search(Long.parseLong(words[2]), Long.parseLong(words[3]),
+                   (key) -> out.printf("HIT %d %d%n", id, key),
+                   (count) -> {
+                    out.printf("PROGRESS %d %d%n", id, count);
+                    out.flush();
+                });
+            out.printf("DONE %d%n", id);
+            out.flush();
+        }
+    }
+
+    /** Return the indices in ALPHA of the characters of S, omitting
+     *  spaces. */
+    private static int[] toInts(Alphabet alpha, String s) {
+        String text = s.replace(" ", "");
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            if (!alpha.contains(text.charAt(i))) {
+                throw error("character %c not in alphabet", text.charAt(i));
+            }
+            result[i] = alpha.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /** Number of keys between progress reports. */
+    static final long PROGRESS_INTERVAL = 1 << 16;
+
+    /** Machine used to test keys. */
+    private final Machine _machine;
+
+    /** Keys of my machine. */
+    private final Keyspace _keys;
+
+    /** Ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Expected start of the plaintext, as alphabet indices. */
+    private final int[] _crib;
+
+}
@@ -0,0 +1,137 @@
+package enigma;
+
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A settings line compiled against a particular machine: the rotors to
+ *  insert, their initial positions and the plugboard, as a table over
+ *  the machine's alphabet.  Settings are immutable once compiled, so
+ *  applying one to its machine (see Machine.apply) needs no parsing.
+ *  @author Jinho Shin
+ */
+class Settings {
+
+    /** Settings described by LINE putting ROTORS (reflector first) at
+     *  POSITIONS (one for each rotor after the reflector), with plugboard
+     *  table PLUGBOARD. */
+    private Settings(String line, Rotor[] rotors, int[] positions,
+                     int[] plugboard) {
+        _line = line;
+        _rotors = rotors;
+        _positions = positions;
+        _plugboard = plugboard;
+    }
+
+    /** Return the settings described by LINE, which must have the format
+     *  specified in the assignment, compiled for machine M. */
+    static Settings compile(Machine M, String line) {
+        try {
+            Scanner tokens = new Scanner(line);
+            if (!tokens.next().equals("*")) {
+                throw error("must start with an asterisk");
+            }
+            String[] names = new String[M.numRotors()];
+            for (int i = 0; i < M.numRotors(); i++) {
+                names[i] = tokens.next();
+            }
+            Rotor[] rotors = M.selectRotors(names);
+            if (!tokens.hasNext()) {
+                throw error("need rotors settings");
+            }
+            int[] positions = positions(M, tokens.next());
+            String pCycle = "";
+            while (tokens.hasNext("\\(.*\\)")) {
+                pCycle += tokens.next();
+            }
+            if (tokens.hasNext()) {
+                throw error("Wrong setup format.");
+            }
+            String pString = "";
+            for (String p : pCycle.split("\\(|\\)")) {
+                pString += p;
+            }
+            Permutation plug =
+                new Permutation(pCycle, new Alphabet(pString));
+            return new Settings(normalize(line), rotors, positions,
+                                M.plugboardTable(plug));
+        } catch (NoSuchElementException excp) {
+            throw error("settings line truncated");
+        }
+    }
+
+    /** Return the initial positions denoted by SETTING, a string of
+     *  M.numRotors()-1 characters in M's alphabet. */
+    private static int[] positions(Machine M, String setting) {
+        if (setting.length() != M.numRotors() - 1) {
+            throw error("wrong number of rotor settings: %s", setting);
+        }
+        Alphabet alpha = M.alphabet();
+        int[] result = new int[setting.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            if (!alpha.contains(setting.charAt(i))) {
+                throw error("bad rotor setting: %c", setting.charAt(i));
+            }
+            result[i] = alpha.toInt(setting.charAt(i));
+        }
+        return result;
+    }
+
+    /** Return LINE with leading and trailing whitespace removed and other
+     *  runs of whitespace replaced by single blanks, so that equivalent
+     *  settings lines are equal strings. */
+    static String normalize(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        boolean blank = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                blank = result.length() > 0;
+            } else {
+                if (blank) {
+                    result.append(' ');
+                    blank = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the settings line I was compiled from, normalized. */
+    String line() {
+        return _line;
+    }
+
+    /** Return the rotors to insert, reflector first.  The result must not
+     *  be modified. */
+    Rotor[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the initial positions of rotors 1 .. numRotors()-1.  The
+     *  result must not be modified. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** Return the plugboard, as a table mapping each alphabet index to
+     *  its plugboard image.  The result must not be modified. */
+    int[] plugboard() {
+        return _plugboard;
+    }
+
+    /** Normalized settings line. */
+    private final String _line;
+
+    /** Rotors, reflector first. */
+    private final Rotor[] _rotors;
+
+    /** Initial positions of all but the reflector. */
+    private final int[] _positions;
+
+    /** Plugboard table. */
+    private final int[] _plugboard;
+
+}
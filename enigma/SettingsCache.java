@@ -0,0 +1,54 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded, least-recently-used cache of settings lines compiled for
+ *  one machine, keyed by normalized settings line.
+ *  @author Jinho Shin
+ */
+class SettingsCache {
+
+    /** A cache holding at most CAPACITY settings compiled for M. */
+    SettingsCache(Machine M, int capacity) {
+        _machine = M;
+        _capacity = capacity;
+        _cache = new LinkedHashMap<String, Settings>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Settings> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return the compiled form of settings line LINE, compiling it
+     *  only if an equivalent line is not already cached. */
+    Settings get(String line) {
+        String key = Settings.normalize(line);
+        Settings result = _cache.get(key);
+        if (result == null) {
+            result = Settings.compile(_machine, key);
+            _cache.put(key, result);
+        }
+        return result;
+    }
+
+    /** Return the number of cached settings. */
+    int size() {
+        return _cache.size();
+    }
+
+    /** Default capacity. */
+    static final int DEFAULT_CAPACITY = 256;
+
+    /** Machine for which settings are compiled. */
+    private final Machine _machine;
+
+    /** Maximum number of entries. */
+    private final int _capacity;
+
+    /** Compiled settings by normalized line, in access order. */
+    private final LinkedHashMap<String, Settings> _cache;
+
+}
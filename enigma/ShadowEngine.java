@@ -0,0 +1,111 @@
+package enigma;
+
+import java.util.function.Consumer;
+
+/** An engine that checks another engine against ReferenceEngine.  A
+ *  fraction of messages, chosen evenly, is passed through both engines,
+ *  and the first character of each on which they differ is reported,
+ *  with the settings line in force and the offset of the character
+ *  since those settings were applied.  The other engine's results are
+ *  always the ones used.
+ *  @author Jinho Shin
+ */
+class ShadowEngine implements Engine {
+
+    /** An engine for machine M, which uses PRIMARY and checks a
+     *  fraction RATE (between 0 and 1) of messages, sending each report
+     *  of a difference to REPORT.  PRIMARY must keep its rotor positions
+     *  to itself (it may not be a ReferenceEngine). */
+    ShadowEngine(Machine M, Engine primary, double rate,
+                 Consumer<String> report) {
+        _machine = M;
+        _primary = primary;
+        _rate = rate;
+        _report = report;
+    }
+
+    @Override
+    public String name() {
+        return _primary.name();
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        _primary.load(rotors);
+        _rotors = rotors;
+        _offset = 0;
+        _checking = false;
+    }
+
+    @Override
+    public void store(Rotor[] rotors) {
+        _primary.store(rotors);
+    }
+
+    @Override
+    public void startMessage() {
+        _credit += _rate;
+        _checking = _credit >= 1.0;
+        if (_checking) {
+            _credit -= 1.0;
+            _primary.store(_rotors);
+            _reference.load(_rotors);
+        }
+    }
+
+    @Override
+    public int convert(int c) {
+        int result = _primary.convert(c);
+        if (_checking) {
+            int expected = _reference.convert(c);
+            if (expected != result) {
+                Alphabet alpha = _machine.alphabet();
+                _divergences += 1;
+                _checking = false;
+                _report.accept(String.format(
+                    "engine %s differs from reference under settings "
+                    + "\"%s\" at offset %d: %c instead of %c",
+                    _primary.name(), _machine.settingsLine(), _offset,
+                    alpha.toChar(result), alpha.toChar(expected)));
+            }
+        }
+        _offset += 1;
+        return result;
+    }
+
+    /** Return the number of differences found. */
+    long divergences() {
+        return _divergences;
+    }
+
+    /** Machine I belong to. */
+    private final Machine _machine;
+
+    /** Engine whose results are used. */
+    private final Engine _primary;
+
+    /** Engine checking _primary. */
+    private final ReferenceEngine _reference = new ReferenceEngine();
+
+    /** Fraction of messages checked. */
+    private final double _rate;
+
+    /** Destination of reports. */
+    private final Consumer<String> _report;
+
+    /** Rotors of the machine. */
+    private Rotor[] _rotors;
+
+    /** Number of characters converted since load. */
+    private long _offset;
+
+    /** Accumulated fraction of a message due to be checked. */
+    private double _credit;
+
+    /** True iff the current message is being checked. */
+    private boolean _checking;
+
+    /** Number of differences found. */
+    private long _divergences;
+
+}
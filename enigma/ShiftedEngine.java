@@ -0,0 +1,132 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A compiled engine that keeps, for each rotor, tables of its
+ *  conversions at every position, so that passing a character through a
+ *  rotor is a single lookup, with no modular arithmetic.  The tables of
+ *  a rotor take 4N^2 bytes for an alphabet of size N, and are built when
+ *  the rotor is first loaded.  The tables of the most recently loaded
+ *  rotors are kept within a memory budget, but those of the rotors
+ *  loaded now are always kept.
+ *  @author Jinho Shin
+ */
+class ShiftedEngine extends CompiledEngine {
+
+    /** An engine for the rotors available to M, keeping at most BUDGET
+     *  bytes of tables (but always the tables of the rotors loaded). */
+    ShiftedEngine(Machine M, long budget) {
+        super(M);
+        _size = M.alphabet().size();
+        if ((long) _size * _size > Integer.MAX_VALUE) {
+            throw error("alphabet too large for engine shifted");
+        }
+        _numRotors = M.numRotors();
+        int capacity = (int) Math.max(_numRotors,
+                                      Math.min(budget / bytes(_size, 1),
+                                               M.registry().size()));
+        _tables = new LinkedHashMap<Integer, char[][]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Integer, char[][]> e) {
+                return size() > capacity;
+            }
+        };
+        _slotForward = new char[_numRotors][];
+        _slotBackward = new char[_numRotors][];
+    }
+
+    /** An engine for the rotors available to M, with the default
+     *  budget. */
+    ShiftedEngine(Machine M) {
+        this(M, AdaptiveEngine.BUDGET);
+    }
+
+    @Override
+    public String name() {
+        return "shifted";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        super.load(rotors);
+        for (int i = 1; i < _numRotors; i += 1) {
+            int r = rotor(i);
+            char[][] tables = _tables.get(r);
+            if (tables == null) {
+                tables = build(r);
+                _tables.put(r, tables);
+            }
+            _slotForward[i] = tables[0];
+            _slotBackward[i] = tables[1];
+        }
+        _reflector = rotor(0);
+    }
+
+    @Override
+    public int convert(int c) {
+        step();
+        int n = _size;
+        for (int i = _numRotors - 1; i > 0; i -= 1) {
+            c = _slotForward[i][position(i) * n + c];
+        }
+        c = config().backward(_reflector, c);
+        for (int i = 1; i < _numRotors; i += 1) {
+            c = _slotBackward[i][position(i) * n + c];
+        }
+        return c;
+    }
+
+    /** Return the number of rotors whose tables are kept. */
+    int tables() {
+        return _tables.size();
+    }
+
+    /** Return the number of bytes of tables needed for a machine with
+     *  NUMROTORS rotors and an alphabet of size N. */
+    static long bytes(int n, int numRotors) {
+        return 4L * numRotors * n * n;
+    }
+
+    /** Return the forward and backward tables of rotor number R. */
+    private char[][] build(int r) {
+        CompiledConfig config = config();
+        int n = _size;
+        char[] forward = new char[n * n];
+        char[] backward = new char[n * n];
+        for (int p = 0; p < n; p += 1) {
+            for (int c = 0; c < n; c += 1) {
+                int t = c + p >= n ? c + p - n : c + p;
+                int f = config.forward(r, t) - p;
+                int b = config.backward(r, t) - p;
+                forward[p * n + c] = (char) (f < 0 ? f + n : f);
+                backward[p * n + c] = (char) (b < 0 ? b + n : b);
+            }
+        }
+        return new char[][] { forward, backward };
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Forward and backward tables kept, by rotor number, least
+     *  recently used first.  Entry P * N + C of each is the conversion of
+     *  C at position P. */
+    private final LinkedHashMap<Integer, char[][]> _tables;
+
+    /** Forward tables of the rotor in each slot. */
+    private final char[][] _slotForward;
+
+    /** Backward tables of the rotor in each slot. */
+    private final char[][] _slotBackward;
+
+    /** Number of the loaded reflector. */
+    private int _reflector;
+
+}
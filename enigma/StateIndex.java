@@ -0,0 +1,372 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A sidecar index of the states of a machine during a run, for
+ *  decrypting any part of its output without replaying the run from
+ *  the start.  A record is kept after each settings line and before
+ *  every K-th character converted under it: the byte offsets of that
+ *  point in the input and the output, the settings line in force, and
+ *  the positions of the rotors after the reflector.
+ *
+ *  The index is a binary file: a header of HEADER bytes (the magic
+ *  number, version, number of rotor positions, K, number of records and
+ *  offset of the settings table), then fixed-size records in order of
+ *  offset, each of an input and an output offset (longs), the number of
+ *  its settings line (an int) and its rotor positions (unsigned shorts),
+ *  and last the table of distinct settings lines, each an int length
+ *  and UTF-8 bytes.  It is read through a memory mapping, and records
+ *  are found by binary search.  Output offsets within a line assume
+ *  that each output character is one byte, as it is for ASCII.
+ *  @author Jinho Shin
+ */
+class StateIndex {
+
+    /** The index in the file named NAME. */
+    StateIndex(String name) {
+        try (FileChannel channel = FileChannel.open(Paths.get(name))) {
+            _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                channel.size());
+        } catch (IOException excp) {
+            throw error("could not read index %s", name);
+        }
+        if (_data.capacity() < HEADER || _data.getInt(0) != MAGIC
+            || _data.getInt(4) != VERSION) {
+            throw error("%s is not a state index", name);
+        }
+        _numPositions = _data.getInt(8);
+        _interval = _data.getInt(12);
+        _records = _data.getLong(16);
+        long table = _data.getLong(24);
+        _recordSize = recordSize(_numPositions);
+        if (table != HEADER + _records * _recordSize
+            || table + 4 > _data.capacity()) {
+            throw error("%s is damaged", name);
+        }
+        int count = _data.getInt((int) table);
+        int p = (int) table + 4;
+        _settings = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            int len = _data.getInt(p);
+            byte[] bytes = new byte[len];
+            _data.position(p + 4);
+            _data.get(bytes);
+            _settings[i] = new String(bytes, StandardCharsets.UTF_8);
+            p += 4 + len;
+        }
+    }
+
+    /** Return the number of records. */
+    long size() {
+        return _records;
+    }
+
+    /** Return the number of characters between records. */
+    int interval() {
+        return _interval;
+    }
+
+    /** Return the input offset of record R. */
+    long input(long r) {
+        return _data.getLong(record(r));
+    }
+
+    /** Return the output offset of record R. */
+    long output(long r) {
+        return _data.getLong(record(r) + 8);
+    }
+
+    /** Return the settings line of record R. */
+    String settings(long r) {
+        return _settings[_data.getInt(record(r) + 16)];
+    }
+
+    /** Return the rotor positions of record R. */
+    int[] positions(long r) {
+        int p = record(r) + 20;
+        int[] result = new int[_numPositions];
+        for (int i = 0; i < _numPositions; i += 1) {
+            result[i] = _data.getChar(p + 2 * i);
+        }
+        return result;
+    }
+
+    /** Return the last record whose output offset is at most OUTPUT, or
+     *  -1 if there is none. */
+    long find(long output) {
+        long lo = 0, hi = _records;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (output(mid) <= output) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /** Return the decryption of the characters at byte offsets FROM to
+     *  TO-1 in OUTPUT, the output of the run I index, using M, which has
+     *  the run's configuration.  Blanks and line separators are skipped.
+     *  Only the part of OUTPUT after the nearest preceding record is
+     *  read, and the state of M is reset at each later record, since
+     *  the settings may change there.  The characters of the output
+     *  must be ASCII. */
+    String decrypt(Machine M, String output, long from, long to) {
+        long r = find(from);
+        if (r < 0) {
+            r = 0;
+        }
+        if (r >= _records || to <= from) {
+            return "";
+        }
+        long start = output(r);
+        Alphabet alpha = M.alphabet();
+        StringBuilder result = new StringBuilder();
+        try (FileChannel channel = FileChannel.open(Paths.get(output))) {
+            ByteBuffer text = ByteBuffer.allocate(
+                (int) Math.max(0, Math.min(to, channel.size()) - start));
+            while (text.hasRemaining()
+                   && channel.read(text, start + text.position()) >= 0) {
+                continue;
+            }
+            int line = -1;
+            for (int i = 0; i < text.position(); i += 1) {
+                while (r < _records && output(r) <= start + i) {
+                    int id = _data.getInt(record(r) + 16);
+                    if (id != line) {
+                        M.apply(Settings.compile(M, _settings[id]));
+                        line = id;
+                    }
+                    M.setPositions(positions(r));
+                    r += 1;
+                }
+                char c = (char) text.get(i);
+                if (c == ' ' || c == '\n' || c == '\r') {
+                    continue;
+                } else if (!alpha.contains(c)) {
+                    throw error("character %c not in alphabet", c);
+                }
+                int p = M.convert(alpha.toInt(c));
+                if (start + i >= from) {
+                    result.append(alpha.toChar(p));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", output);
+        }
+        return result.toString();
+    }
+
+    /** Return the byte offset of record R. */
+    private int record(long r) {
+        if (r < 0 || r >= _records) {
+            throw error("no record %d", r);
+        }
+        return (int) (HEADER + r * _recordSize);
+    }
+
+    /** Return the size of a record of NUMPOSITIONS positions. */
+    private static int recordSize(int numPositions) {
+        return 20 + 2 * numPositions;
+    }
+
+    /** The writer of an index during a run, which converts the
+     *  run's message lines so as to record states within them. */
+    static class Writer implements AutoCloseable {
+
+        /** A writer of an index of a run of M to the file named NAME,
+         *  with a record every INTERVAL characters. */
+        Writer(Machine M, String name, int interval) {
+            if (interval < 1) {
+                throw error("bad index interval: %d", interval);
+            }
+            _machine = M;
+            _name = name;
+            _interval = interval;
+            _numPositions = M.numRotors() - 1;
+            try {
+                _file = new FileOutputStream(name);
+                _out = new DataOutputStream(
+                    new BufferedOutputStream(_file, 1 << 16));
+                _out.write(new byte[HEADER]);
+            } catch (IOException excp) {
+                throw error("could not open index %s", name);
+            }
+        }
+
+        /** Note that the settings line SETTINGS has just been applied to
+         *  my machine, after which the input is at offset INPUT and the
+         *  output at OUTPUT. */
+        void settings(String settings, long input, long output) {
+            Integer id = _ids.get(settings);
+            if (id == null) {
+                id = _lines.size();
+                _ids.put(settings, id);
+                _lines.add(settings);
+            }
+            _current = id;
+            record(input, output);
+        }
+
+        /** Return the conversion of the message LINE by my machine, as
+         *  by Machine.convert(String), given that it starts at offset
+         *  INPUT in the input and its output will start at offset OUTPUT,
+         *  recording states as they fall due. */
+        String convert(String line, long input, long output) {
+            if (_buffer.length < line.length()) {
+                _buffer = new char[line.length()];
+                _result = new char[line.length()];
+            }
+            StringBuilder result = new StringBuilder(line.length());
+            long inOffset = input;
+            int k = 0;
+            for (int j = 0; j < line.length(); ) {
+                if (_current >= 0 && _due == 0) {
+                    record(inOffset, output + k + k / 5);
+                }
+                int e = j, n = 0;
+                while (e < line.length() && (n < _due || _current < 0)) {
+                    if (line.charAt(e) != ' ') {
+                        n += 1;
+                    }
+                    e += 1;
+                }
+                line.getChars(j, e, _buffer, 0);
+                n = _machine.convert(_buffer, e - j, _result);
+                result.append(_result, 0, n);
+                _due -= n;
+                k += n;
+                inOffset += line.substring(j, e).getBytes(CHARSET).length;
+                j = e;
+            }
+            return result.toString();
+        }
+
+        /** Record the current state at offsets INPUT and OUTPUT. */
+        private void record(long input, long output) {
+            try {
+                _out.writeLong(input);
+                _out.writeLong(output);
+                _out.writeInt(_current);
+                for (int p : _machine.positions()) {
+                    _out.writeChar(p);
+                }
+            } catch (IOException excp) {
+                throw error("could not write index %s", _name);
+            }
+            _records += 1;
+            _due = _interval;
+        }
+
+        /** Write the settings table and header and close the index. */
+        @Override
+        public void close() {
+            try {
+                long table = HEADER + _records * recordSize(_numPositions);
+                _out.writeInt(_lines.size());
+                for (String line : _lines) {
+                    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                    _out.writeInt(bytes.length);
+                    _out.write(bytes);
+                }
+                _out.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(VERSION).putInt(_numPositions)
+                    .putInt(_interval).putLong(_records).putLong(table);
+                header.flip();
+                _file.getChannel().write(header, 0);
+                _out.close();
+            } catch (IOException excp) {
+                throw error("could not write index %s", _name);
+            }
+        }
+
+        /** Machine whose states are recorded. */
+        private final Machine _machine;
+
+        /** Name of the index file. */
+        private final String _name;
+
+        /** Number of characters between records. */
+        private final int _interval;
+
+        /** Number of rotor positions in a state. */
+        private final int _numPositions;
+
+        /** The index file. */
+        private final FileOutputStream _file;
+
+        /** Stream of records. */
+        private final DataOutputStream _out;
+
+        /** Numbers of the distinct settings lines. */
+        private final HashMap<String, Integer> _ids = new HashMap<>();
+
+        /** Distinct settings lines, by number. */
+        private final List<String> _lines = new ArrayList<>();
+
+        /** Number of the current settings line, or -1 before any. */
+        private int _current = -1;
+
+        /** Number of characters to convert before the next record. */
+        private int _due;
+
+        /** Number of records written. */
+        private long _records;
+
+        /** Characters of the message being converted. */
+        private char[] _buffer = new char[0];
+
+        /** Converted characters. */
+        private char[] _result = new char[0];
+    }
+
+    /** Default number of characters between records. */
+    static final int INTERVAL = 1 << 16;
+
+    /** Size of the header, in bytes. */
+    static final int HEADER = 32;
+
+    /** First four bytes of an index ("ENIX"). */
+    private static final int MAGIC = 0x454e4958;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Charset of the input. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Contents of the index. */
+    private final ByteBuffer _data;
+
+    /** Number of rotor positions in a state. */
+    private final int _numPositions;
+
+    /** Number of characters between records. */
+    private final int _interval;
+
+    /** Number of records. */
+    private final long _records;
+
+    /** Size of a record, in bytes. */
+    private final int _recordSize;
+
+    /** Settings lines, by number. */
+    private final String[] _settings;
+
+}
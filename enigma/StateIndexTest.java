@@ -0,0 +1,77 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for StateIndex.
+ *  @author Jinho Shin
+ */
+public class StateIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings lines used in the tests. */
+    private static final String[] SETTINGS = {
+        "* B Beta I II III AAAA (AQ) (EP)",
+        "* B Beta III I II QZRT (HQ) (EX)"
+    };
+
+    @Test
+    public void testIndex() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        String name = dir.resolve("index").toString();
+        Path output = dir.resolve("out");
+        Machine M = new MachineTest().navalMachine();
+        StringBuilder out = new StringBuilder();
+        StringBuilder plainAt = new StringBuilder();
+        long input = 0;
+        try (StateIndex.Writer index = new StateIndex.Writer(M, name, 7)) {
+            for (int i = 0; i < 30; i += 1) {
+                String line;
+                if (i % 10 == 0) {
+                    line = SETTINGS[i / 10 % 2];
+                    M.apply(Settings.compile(M, line));
+                    input += line.length() + 1;
+                    index.settings(line, input, out.length());
+                    continue;
+                }
+                line = "HELLO  WORLD " + "ABCDEFGHIJKLMNOPQ".substring(i % 17);
+                String text = Main.groups(index.convert(line, input,
+                                                        out.length()));
+                String source = Main.groups(line.replace(" ", ""));
+                out.append(text).append('\n');
+                plainAt.append(source).append('\n');
+                input += line.length() + 1;
+            }
+        }
+        Files.write(output, out.toString().getBytes());
+
+        StateIndex index = new StateIndex(name);
+        assertEquals(7, index.interval());
+        assertTrue(index.size() > 3 * 3 + 9 * 27 / 7);
+        assertEquals(SETTINGS[0], index.settings(index.find(out.length())));
+        assertEquals(SETTINGS[1], index.settings(index.find(out.length() / 2)));
+        for (long r = 1; r < index.size(); r += 1) {
+            assertTrue(index.output(r - 1) <= index.output(r));
+            assertTrue(index.input(r - 1) <= index.input(r));
+        }
+        for (int from = 0; from < out.length(); from += 11) {
+            for (int to = from; to <= out.length(); to += 13) {
+                String expected =
+                    plainAt.substring(from, to).replaceAll("\\s", "");
+                assertEquals(expected,
+                             index.decrypt(new MachineTest().navalMachine(),
+                                           output.toString(), from, to));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+package enigma;
+
+import java.util.concurrent.Flow;
+
+import static enigma.EnigmaException.*;
+
+/** A reactive stage converting a stream of text chunks and settings
+ *  commands with one machine, whose state carries over from chunk to
+ *  chunk.  Each text chunk that contains any characters to convert
+ *  produces one output chunk of converted characters (blanks are
+ *  skipped, and no grouping is done), as soon as it arrives, so that no
+ *  message is ever held whole.  Settings commands produce no output.
+ *
+ *  Demand is honoured end to end: chunks are requested from upstream
+ *  only as the subscriber requests output, with one more requested for
+ *  each chunk that produced none, so that nothing is buffered.  A bad
+ *  settings command or character cancels upstream and ends the output
+ *  with an EnigmaException.  There may be only one subscriber.
+ *
+ *  Signals to the subscriber are serialized by one lock.  An ending
+ *  that arises while a signal is being delivered (for example, from a
+ *  bad request made by the subscriber inside onNext) is recorded, and
+ *  delivered by the signalling thread as soon as that signal returns;
+ *  nothing is delivered after the ending.
+ *  @author Jinho Shin
+ */
+class StreamProcessor
+    implements Flow.Processor<StreamProcessor.Chunk, String> {
+
+    /** An item of input: text to convert or a settings line to apply. */
+    static final class Chunk {
+
+        /** A chunk of TEXT, which is a settings line iff SETTINGS. */
+        private Chunk(String text, boolean settings) {
+            _text = text;
+            _settings = settings;
+        }
+
+        /** Return a chunk of message text TEXT. */
+        static Chunk text(String text) {
+            return new Chunk(text, false);
+        }
+
+        /** Return a command applying the settings line LINE. */
+        static Chunk settings(String line) {
+            return new Chunk(line, true);
+        }
+
+        /** Return my text. */
+        String text() {
+            return _text;
+        }
+
+        /** Return true iff I am a settings command. */
+        boolean isSettings() {
+            return _settings;
+        }
+
+        /** Text or settings line. */
+        private final String _text;
+
+        /** True for a settings command. */
+        private final boolean _settings;
+    }
+
+    /** A processor converting with M. */
+    StreamProcessor(Machine M) {
+        _machine = M;
+        _settings = new SettingsCache(M, SettingsCache.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        synchronized (_signals) {
+            if (_downstream == null) {
+                _downstream = subscriber;
+                _signalling = true;
+                try {
+                    subscriber.onSubscribe(new Subscription());
+                } finally {
+                    _signalling = false;
+                }
+                deliverEnding();
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Subscription());
+        subscriber.onError(new IllegalStateException("already subscribed"));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long pending;
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+            pending = _pending;
+            _pending = 0;
+        }
+        if (_cancelled) {
+            subscription.cancel();
+        } else if (pending > 0) {
+            subscription.request(pending);
+        }
+    }
+
+    @Override
+    public void onNext(Chunk item) {
+        if (_done) {
+            return;
+        }
+        String output;
+        try {
+            if (item.isSettings()) {
+                _machine.apply(_settings.get(item.text()));
+                output = "";
+            } else {
+                String text = item.text();
+                if (_buffer.length < text.length()) {
+                    _buffer = new char[text.length()];
+                    _result = new char[text.length()];
+                }
+                text.getChars(0, text.length(), _buffer, 0);
+                int n = _machine.convert(_buffer, text.length(), _result);
+                output = new String(_result, 0, n);
+            }
+        } catch (EnigmaException excp) {
+            _upstream.cancel();
+            end(excp);
+            return;
+        }
+        if (output.isEmpty()) {
+            _upstream.request(1);
+        } else {
+            emit(output);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        end(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        end(COMPLETE);
+    }
+
+    /** Deliver ITEM to my subscriber, unless an ending has been
+     *  recorded, in which case deliver that instead, and then any ending
+     *  recorded meanwhile. */
+    private void emit(String item) {
+        synchronized (_signals) {
+            if (_ending != null) {
+                deliverEnding();
+                return;
+            }
+            boolean nested = _signalling;
+            _signalling = true;
+            try {
+                _downstream.onNext(item);
+            } finally {
+                _signalling = nested;
+            }
+            if (!nested) {
+                deliverEnding();
+            }
+        }
+    }
+
+    /** End my output with the error CAUSE, or normally if CAUSE is
+     *  COMPLETE, unless an ending has already been recorded.  The ending
+     *  is delivered at once unless a signal is being delivered (by this
+     *  thread: others wait for the lock), in which case it follows that
+     *  signal, or I have no subscriber yet, in which case it is
+     *  delivered when one subscribes. */
+    private void end(Throwable cause) {
+        synchronized (_signals) {
+            if (_ending == null) {
+                _ending = cause;
+            }
+            if (!_signalling) {
+                deliverEnding();
+            }
+        }
+    }
+
+    /** Deliver the recorded ending to my subscriber, if there are both
+     *  and it has not been delivered.  Called holding _signals. */
+    private void deliverEnding() {
+        if (_done || _ending == null || _downstream == null) {
+            return;
+        }
+        _done = true;
+        if (_ending == COMPLETE) {
+            _downstream.onComplete();
+        } else {
+            _downstream.onError(_ending);
+        }
+    }
+
+    /** The subscription of my subscriber. */
+    private class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                end(new IllegalArgumentException(
+                        "non-positive request: " + n));
+                return;
+            }
+            Flow.Subscription upstream;
+            synchronized (StreamProcessor.this) {
+                upstream = _upstream;
+                if (upstream == null) {
+                    _pending = _pending + n < 0 ? Long.MAX_VALUE
+                        : _pending + n;
+                    return;
+                }
+            }
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            Flow.Subscription upstream;
+            synchronized (StreamProcessor.this) {
+                upstream = _upstream;
+            }
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+    }
+
+    /** Marks normal completion in end. */
+    private static final Throwable COMPLETE = new Throwable();
+
+    /** Machine doing the conversion. */
+    private final Machine _machine;
+
+    /** Compiled settings lines. */
+    private final SettingsCache _settings;
+
+    /** Characters of the current chunk. */
+    private char[] _buffer = new char[0];
+
+    /** Converted characters of the current chunk. */
+    private char[] _result = new char[0];
+
+    /** Source of input, or null before it subscribes me. */
+    private Flow.Subscription _upstream;
+
+    /** Receiver of output, or null before it subscribes. */
+    private Flow.Subscriber<? super String> _downstream;
+
+    /** Output requested before _upstream was known. */
+    private long _pending;
+
+    /** True once my subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** Lock serializing the signals to my subscriber. */
+    private final Object _signals = new Object();
+
+    /** True while a signal is being delivered to my subscriber. */
+    private boolean _signalling;
+
+    /** The ending of my output (see end), once recorded, or null. */
+    private Throwable _ending;
+
+    /** True once the ending has been delivered. */
+    private volatile boolean _done;
+
+}
@@ -0,0 +1,316 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The suite of all JUnit tests for StreamProcessor and KeyedStreams.
+ *  @author Jinho Shin
+ */
+public class StreamProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings used in the tests. */
+    private static final String SETTINGS =
+        "* B Beta I II III AAAA (AQ) (EP)";
+
+    /** A subscriber collecting its input, requesting one item at a time
+     *  once started. */
+    static class Collector implements Flow.Subscriber<String> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        @Override
+        public void onNext(String item) {
+            _items.add(item);
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _error = throwable;
+            _done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _done.countDown();
+        }
+
+        /** Start requesting items. */
+        void start() {
+            _subscription.request(1);
+        }
+
+        /** Wait for the end of the input. */
+        void await() throws InterruptedException {
+            assertTrue(_done.await(5, TimeUnit.SECONDS));
+        }
+
+        /** Subscription to the input. */
+        private Flow.Subscription _subscription;
+        /** Items received. */
+        private final List<String> _items = new ArrayList<>();
+        /** Error received, or null. */
+        private volatile Throwable _error;
+        /** Released at the end of the input. */
+        private final CountDownLatch _done = new CountDownLatch(1);
+    }
+
+    @Test
+    public void testChunks() throws InterruptedException {
+        Machine m = new MachineTest().navalMachine();
+        Collector out = new Collector();
+        StreamProcessor processor = new StreamProcessor(m);
+        processor.subscribe(out);
+        SubmissionPublisher<StreamProcessor.Chunk> in =
+            new SubmissionPublisher<>();
+        in.subscribe(processor);
+        in.submit(StreamProcessor.Chunk.settings(SETTINGS));
+        in.submit(StreamProcessor.Chunk.text("HELLO WO"));
+        in.submit(StreamProcessor.Chunk.text("  "));
+        in.submit(StreamProcessor.Chunk.text("RLD"));
+        in.close();
+        Thread.sleep(100);
+        assertEquals(0, out._items.size());
+        out.start();
+        out.await();
+        assertNull(out._error);
+
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        String expected = ref.convert("HELLOWORLD");
+        assertEquals(2, out._items.size());
+        assertEquals(expected.substring(0, 7), out._items.get(0));
+        assertEquals(expected.substring(7), out._items.get(1));
+    }
+
+    @Test
+    public void testError() throws InterruptedException {
+        Collector out = new Collector();
+        StreamProcessor processor =
+            new StreamProcessor(new MachineTest().navalMachine());
+        SubmissionPublisher<StreamProcessor.Chunk> in =
+            new SubmissionPublisher<>();
+        in.subscribe(processor);
+        processor.subscribe(out);
+        out.start();
+        in.submit(StreamProcessor.Chunk.settings(SETTINGS));
+        in.submit(StreamProcessor.Chunk.text("HELLO 1"));
+        out.await();
+        assertTrue(out._error instanceof EnigmaException);
+    }
+
+    @Test
+    public void testKeyedStreams() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Map<String, Collector> sinks = new ConcurrentHashMap<>();
+        KeyedStreams<String> fanout = new KeyedStreams<>(
+            new MachineTest().navalMachine(), executor, 4,
+            key -> {
+                Collector c = new Collector() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription s) {
+                        super.onSubscribe(s);
+                        start();
+                    }
+                };
+                sinks.put(key, c);
+                return c;
+            });
+        SubmissionPublisher<Map.Entry<String, StreamProcessor.Chunk>> in =
+            new SubmissionPublisher<>();
+        in.subscribe(fanout);
+        for (String key : new String[] { "a", "b" }) {
+            in.submit(entry(key, StreamProcessor.Chunk.settings(SETTINGS)));
+        }
+        for (int i = 0; i < 20; i += 1) {
+            in.submit(entry(i % 3 == 0 ? "b" : "a",
+                            StreamProcessor.Chunk.text("HELLO")));
+        }
+        in.close();
+        while (sinks.size() < 2 || fanout.size() < 2) {
+            Thread.sleep(10);
+        }
+        sinks.get("a").await();
+        sinks.get("b").await();
+        executor.shutdown();
+
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        String expected = ref.convert("HELLOHELLOHELLOHELLOHELLOHELLOHELLO");
+        assertEquals(expected, String.join("", sinks.get("b")._items));
+        assertEquals(13, sinks.get("a")._items.size());
+    }
+
+    @Test
+    public void testBadRequest() throws InterruptedException {
+        List<String> signals = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        StreamProcessor processor =
+            new StreamProcessor(new MachineTest().navalMachine());
+        processor.subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                _subscription = s;
+                s.request(5);
+            }
+
+            @Override
+            public void onNext(String item) {
+                signals.add("next");
+                _subscription.request(0);
+                signals.add("returned");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add(throwable.getClass().getSimpleName());
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("complete");
+                done.countDown();
+            }
+
+            /** Subscription to the output. */
+            private Flow.Subscription _subscription;
+        });
+        SubmissionPublisher<StreamProcessor.Chunk> in =
+            new SubmissionPublisher<>();
+        in.subscribe(processor);
+        in.submit(StreamProcessor.Chunk.settings(SETTINGS));
+        for (int i = 0; i < 4; i += 1) {
+            in.submit(StreamProcessor.Chunk.text("HELLO"));
+        }
+        in.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(List.of("next", "returned",
+                             "IllegalArgumentException"), signals);
+    }
+
+    @Test
+    public void testKeyedDemand() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Collector slow = new Collector();
+        KeyedStreams<String> fanout = new KeyedStreams<>(
+            new MachineTest().navalMachine(), executor, 2, key -> slow);
+        AtomicLong requested = new AtomicLong();
+        fanout.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        int total = 12, sent = 0;
+        fanout.onNext(entry("k", StreamProcessor.Chunk.settings(SETTINGS)));
+        sent += 1;
+        while (sent < total && requested.get() > sent) {
+            fanout.onNext(entry("k", StreamProcessor.Chunk.text("HELLO")));
+            sent += 1;
+        }
+        Thread.sleep(100);
+        assertTrue(sent < total);
+        assertEquals(sent, requested.get());
+
+        slow.start();
+        while (sent < total) {
+            if (requested.get() > sent) {
+                fanout.onNext(entry("k",
+                                    StreamProcessor.Chunk.text("HELLO")));
+                sent += 1;
+            } else {
+                Thread.sleep(1);
+            }
+        }
+        fanout.onComplete();
+        slow.await();
+        executor.shutdown();
+        assertNull(slow._error);
+
+        Machine ref = new MachineTest().navalMachine();
+        ref.apply(Settings.compile(ref, SETTINGS));
+        assertEquals(ref.convert("HELLO".repeat(total - 1)),
+                     String.join("", slow._items));
+    }
+
+    @Test
+    public void testKeyedCancel() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Collector stalled = new Collector(), other = new Collector();
+        KeyedStreams<String> fanout = new KeyedStreams<>(
+            new MachineTest().navalMachine(), executor, 2,
+            key -> key.equals("a") ? stalled : other);
+        AtomicLong requested = new AtomicLong();
+        fanout.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        fanout.onNext(entry("b", StreamProcessor.Chunk.settings(SETTINGS)));
+        fanout.onNext(entry("a", StreamProcessor.Chunk.settings(SETTINGS)));
+        int sent = 2;
+        while (requested.get() > sent) {
+            fanout.onNext(entry("a", StreamProcessor.Chunk.text("HELLO")));
+            sent += 1;
+        }
+        Thread.sleep(100);
+        assertEquals(sent, requested.get());
+
+        stalled._subscription.cancel();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requested.get() == sent
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(sent + 1, requested.get());
+        fanout.onNext(entry("a", StreamProcessor.Chunk.text("HELLO")));
+        assertEquals(sent + 2, requested.get());
+        other.start();
+        fanout.onNext(entry("b", StreamProcessor.Chunk.text("HELLO")));
+        fanout.onComplete();
+        other.await();
+        executor.shutdown();
+        assertNull(other._error);
+        assertEquals(1, other._items.size());
+    }
+
+    /** Return the pair (KEY, CHUNK). */
+    private static Map.Entry<String, StreamProcessor.Chunk> entry(
+        String key, StreamProcessor.Chunk chunk) {
+        return new AbstractMap.SimpleEntry<>(key, chunk);
+    }
+
+}
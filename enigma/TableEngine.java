@@ -0,0 +1,58 @@
+package enigma;
+
+/** A compiled engine that looks up conversions in precomputed scrambler
+ *  tables, when a TableStore has one for the loaded rotors.
+ *  @author Jinho Shin
+ */
+class TableEngine extends CompiledEngine {
+
+    /** An engine for the rotors available to M, using the tables in
+     *  STORE, which must have been checked against M. */
+    TableEngine(Machine M, TableStore store) {
+        super(M);
+        _store = store;
+        _size = M.alphabet().size();
+        _numRotors = M.numRotors();
+        _firstMoving = M.numRotors() - M.numPawls();
+    }
+
+    @Override
+    public String name() {
+        return "tables";
+    }
+
+    @Override
+    public void load(Rotor[] rotors) {
+        super.load(rotors);
+        _table = _store.find(rotors);
+    }
+
+    @Override
+    public int convert(int c) {
+        step();
+        if (_table == null) {
+            return scramble(c);
+        }
+        int k = 0;
+        for (int i = _firstMoving; i < _numRotors; i += 1) {
+            k = k * _size + position(i);
+        }
+        return _table.get(k * _size + c);
+    }
+
+    /** Source of scrambler tables. */
+    private final TableStore _store;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Slot of the leftmost moving rotor. */
+    private final int _firstMoving;
+
+    /** Scrambler table for the loaded rotors, or null. */
+    private TableStore.Table _table;
+
+}
@@ -0,0 +1,378 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A file of precomputed scrambler tables.  Each table is for one rotor
+ *  order and one setting of the non-moving rotors, and gives, for every
+ *  combination of moving-rotor positions and every input, the result of
+ *  passing the input through the rotors and reflector (but not the
+ *  plugboard).  A machine using a table store (see Machine.useTables)
+ *  looks its conversions up instead of computing them.
+ *
+ *  The file begins with a header (all integers big-endian):
+ *      int MAGIC, int VERSION,
+ *      int alphabet size, the alphabet's characters (2 bytes each),
+ *      int number of rotors, int number of pawls,
+ *      int entry width (1 or 2 bytes), int number of tables,
+ *  and for each table
+ *      for each rotor, int length and characters of its name,
+ *      int length and characters of the non-moving rotor settings,
+ *      long fingerprint of the rotors' wiring, long offset of data,
+ *  followed by the tables themselves.  Entry number P * N + C of a table,
+ *  where N is the alphabet size and P numbers the moving-rotor positions
+ *  with the leftmost moving rotor most significant, is the conversion
+ *  of C.
+ *  @author Jinho Shin
+ */
+class TableStore {
+
+    /** Write tables for configuration file ARGS[0] to file ARGS[1], one
+     *  for each of ARGS[2], ARGS[3], ..., each of which gives a rotor
+     *  order followed by the settings of its non-moving rotors (if any),
+     *  as in "B Beta I II III A". */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("usage: TableStore CONFIG OUTPUT ORDER...");
+            }
+            write(Main.readConfig(args[0]), args[1],
+                  Arrays.copyOfRange(args, 2, args.length));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to the file named FILE the tables for machine M and each of
+     *  ORDERS, which are as for main.  The tables are generated on a copy
+     *  of M, which is not changed. */
+    static void write(Machine M, String file, String... orders) {
+        int n = M.alphabet().size();
+        int width = n <= BYTE_LIMIT ? 1 : 2;
+        long entries = entries(n, M.numPawls());
+        String[][] names = new String[orders.length][];
+        String[] fixed = new String[orders.length];
+        long[] prints = new long[orders.length];
+        long headerSize = 4 * 7 + 2 * n;
+        for (int k = 0; k < orders.length; k += 1) {
+            String[] words = orders[k].trim().split("\\s+");
+            int fixedSlots = M.numRotors() - M.numPawls() - 1;
+            if (words.length != M.numRotors() + (fixedSlots > 0 ? 1 : 0)) {
+                throw error("bad rotor order: %s", orders[k]);
+            }
+            names[k] = Arrays.copyOf(words, M.numRotors());
+            fixed[k] = fixedSlots > 0 ? words[M.numRotors()] : "";
+            if (fixed[k].length() != fixedSlots) {
+                throw error("bad non-moving rotor settings: %s", fixed[k]);
+            }
+            for (int i = 0; i < fixedSlots; i += 1) {
+                if (!M.alphabet().contains(fixed[k].charAt(i))) {
+                    throw error("bad non-moving rotor settings: %s",
+                                fixed[k]);
+                }
+            }
+            prints[k] = fingerprint(M.selectRotors(names[k]));
+            for (String name : names[k]) {
+                headerSize += 4 + 2 * name.length();
+            }
+            headerSize += 4 + 2 * fixed[k].length() + 16;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file),
+                                          1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, alphabetString(M.alphabet()));
+            out.writeInt(M.numRotors());
+            out.writeInt(M.numPawls());
+            out.writeInt(width);
+            out.writeInt(orders.length);
+            for (int k = 0; k < orders.length; k += 1) {
+                for (String name : names[k]) {
+                    writeString(out, name);
+                }
+                writeString(out, fixed[k]);
+                out.writeLong(prints[k]);
+                out.writeLong(headerSize + k * entries * width);
+            }
+            Machine copy = M.copy();
+            for (int k = 0; k < orders.length; k += 1) {
+                writeTable(out, copy, names[k], fixed[k], width);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Write to OUT the table for machine M with rotors NAMES and
+     *  non-moving rotor settings FIXED, with entries WIDTH bytes wide. */
+    private static void writeTable(DataOutputStream out, Machine M,
+                                   String[] names, String fixed, int width)
+        throws IOException {
+        int n = M.alphabet().size();
+        int pawls = M.numPawls();
+        M.insertRotors(names);
+        char[] setting = new char[M.numRotors() - 1];
+        for (int i = 0; i < fixed.length(); i += 1) {
+            setting[i] = fixed.charAt(i);
+        }
+        long positions = entries(n, pawls) / n;
+        for (long p = 0; p < positions; p += 1) {
+            long q = p;
+            for (int i = setting.length - 1; i >= fixed.length(); i -= 1) {
+                setting[i] = M.alphabet().toChar((int) (q % n));
+                q /= n;
+            }
+            M.setRotors(new String(setting));
+            for (int c = 0; c < n; c += 1) {
+                int e = M.scramble(c);
+                if (width == 1) {
+                    out.writeByte(e);
+                } else {
+                    out.writeChar(e);
+                }
+            }
+        }
+    }
+
+    /** Return the table store in the file named FILE, mapped into
+     *  memory. */
+    static TableStore open(String file) {
+        try (FileChannel channel =
+                 FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            MappedByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            Math.min(channel.size(), Integer.MAX_VALUE));
+            header.order(ByteOrder.BIG_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw error("%s is not a table store", file);
+            }
+            if (header.getInt() != VERSION) {
+                throw error("%s has an unsupported table store version",
+                            file);
+            }
+            return new TableStore(channel, header);
+        } catch (IOException | BufferUnderflowException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** A store whose header, after the version, is read from HEADER, and
+     *  whose tables are mapped from CHANNEL. */
+    private TableStore(FileChannel channel, MappedByteBuffer header)
+        throws IOException {
+        _alphabet = readString(header);
+        _numRotors = header.getInt();
+        _numPawls = header.getInt();
+        _width = header.getInt();
+        int count = header.getInt();
+        long size = entries(_alphabet.length(), _numPawls) * _width;
+        for (int k = 0; k < count; k += 1) {
+            String[] names = new String[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                names[i] = readString(header);
+            }
+            String fixed = readString(header);
+            long print = header.getLong();
+            long offset = header.getLong();
+            if (offset + size > channel.size()) {
+                throw new IOException("truncated table store");
+            }
+            MappedByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            Table table = new Table(names, print, data, _width);
+            _tables.put(key(names, fixed), table);
+        }
+    }
+
+    /** Check that my tables were made for machine M, whose available
+     *  rotors are given by REGISTRY. */
+    void check(Machine M, RotorRegistry registry) {
+        if (!_alphabet.equals(alphabetString(M.alphabet()))
+            || _numRotors != M.numRotors() || _numPawls != M.numPawls()) {
+            throw error("table store does not match configuration");
+        }
+        for (Table table : _tables.values()) {
+            Rotor[] rotors = new Rotor[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                rotors[i] = registry.get(table.names()[i]);
+                if (rotors[i] == null) {
+                    throw error("table store does not match configuration");
+                }
+            }
+            if (fingerprint(rotors) != table.fingerprint()) {
+                throw error("table store does not match configuration");
+            }
+        }
+    }
+
+    /** Return my table for ROTORS (reflector first) in their current
+     *  settings, or null if I have none. */
+    Table find(Rotor[] rotors) {
+        StringBuilder key = new StringBuilder();
+        for (Rotor r : rotors) {
+            key.append(r.name()).append(' ');
+        }
+        for (int i = 1; i < _numRotors - _numPawls; i += 1) {
+            key.append(rotors[i].alphabet().toChar(rotors[i].setting()));
+        }
+        return _tables.get(key.toString());
+    }
+
+    /** Return the number of tables I hold. */
+    int size() {
+        return _tables.size();
+    }
+
+    /** One precomputed scrambler table. */
+    static class Table {
+
+        /** A table for rotors NAMES with wiring FINGERPRINT, whose
+         *  entries are WIDTH bytes each in DATA. */
+        Table(String[] names, long fingerprint, MappedByteBuffer data,
+              int width) {
+            _names = names;
+            _fingerprint = fingerprint;
+            _data = data;
+            _wide = width == 2;
+        }
+
+        /** Return entry number K. */
+        int get(int k) {
+            return _wide ? _data.getChar(2 * k) : _data.get(k) & 0xff;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] names() {
+            return _names;
+        }
+
+        /** Return the fingerprint of my rotors' wiring. */
+        long fingerprint() {
+            return _fingerprint;
+        }
+
+        /** Names of my rotors. */
+        private final String[] _names;
+
+        /** Fingerprint of the wiring of my rotors. */
+        private final long _fingerprint;
+
+        /** My entries. */
+        private final MappedByteBuffer _data;
+
+        /** True iff my entries are 2 bytes wide. */
+        private final boolean _wide;
+    }
+
+    /** Return a fingerprint of the wiring of ROTORS, so that tables are
+     *  not used with rotors that have the same names but different
+     *  permutations. */
+    static long fingerprint(Rotor[] rotors) {
+        long h = FNV_BASIS;
+        for (Rotor r : rotors) {
+            for (int i = 0; i < r.size(); i += 1) {
+                h = (h ^ r.permutation().permute(i)) * FNV_PRIME;
+            }
+            h = (h ^ (r.reflecting() ? 1 : r.rotates() ? 2 : 3)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** Return the number of entries in a table over an alphabet of N
+     *  characters with PAWLS moving rotors. */
+    private static long entries(int n, int pawls) {
+        long result = n;
+        for (int i = 0; i < pawls; i += 1) {
+            result *= n;
+            if (result > Integer.MAX_VALUE / 2) {
+                throw error("scrambler tables would be too large");
+            }
+        }
+        return result;
+    }
+
+    /** Return the table key for rotors NAMES with non-moving rotor
+     *  settings FIXED. */
+    private static String key(String[] names, String fixed) {
+        StringBuilder key = new StringBuilder();
+        for (String name : names) {
+            key.append(name).append(' ');
+        }
+        return key.append(fixed).toString();
+    }
+
+    /** Return the characters of ALPHA, in order. */
+    private static String alphabetString(Alphabet alpha) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < alpha.size(); i += 1) {
+            result.append(alpha.toChar(i));
+        }
+        return result.toString();
+    }
+
+    /** Write S to OUT as its length followed by its characters. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return a string read from IN as written by writeString. */
+    private static String readString(MappedByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0 || len > in.remaining() / 2) {
+            throw error("corrupt table store");
+        }
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    /** First word of every table store. */
+    static final int MAGIC = 0x454e5442;
+
+    /** Version of the format written by this class. */
+    static final int VERSION = 1;
+
+    /** Largest alphabet whose tables have one-byte entries. */
+    static final int BYTE_LIMIT = 256;
+
+    /** FNV-1a offset basis. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Alphabet of the machine the tables were made for. */
+    private final String _alphabet;
+
+    /** Number of rotors of that machine. */
+    private final int _numRotors;
+
+    /** Number of pawls of that machine. */
+    private final int _numPawls;
+
+    /** Width of table entries in bytes. */
+    private final int _width;
+
+    /** Tables by rotor names and non-moving rotor settings. */
+    private final HashMap<String, Table> _tables = new HashMap<>();
+
+}
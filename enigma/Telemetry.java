@@ -0,0 +1,304 @@
+package enigma;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** Java Flight Recorder events describing a run, for profiling
+ *  alongside the JVM's own events.  They are recorded whenever a
+ *  recording is active, including one started with jcmd JFR.start on a
+ *  running job.  Conversion and I/O are reported in batches of many
+ *  messages or bytes, so that the cost of the events is small next to
+ *  the work they describe; nothing is measured while no recording is
+ *  active.
+ *  @author Jinho Shin
+ */
+class Telemetry {
+
+    /** A complete run of Main. */
+    @Name("enigma.Run")
+    @Category("Enigma")
+    @Label("Enigma Run")
+    static class Run extends Event {
+        /** How messages were processed. */
+        @Label("Mode")
+        String mode;
+
+        /** Engine converting characters. */
+        @Label("Engine")
+        String engine;
+    }
+
+    /** A settings line applied to a machine. */
+    @Name("enigma.SettingsApplied")
+    @Category("Enigma")
+    @Label("Settings Applied")
+    static class SettingsApplied extends Event {
+        /** Rotor order, reflector first. */
+        @Label("Rotor Order")
+        String rotors;
+
+        /** Number of characters moved by the plugboard. */
+        @Label("Plugboard Size")
+        int plugboardSize;
+    }
+
+    /** A batch of messages converted by one machine.  The event's
+     *  duration runs from the start of the first message to the end of
+     *  the last. */
+    @Name("enigma.ConversionBatch")
+    @Category("Enigma")
+    @Label("Conversion Batch")
+    static class ConversionBatch extends Event {
+        /** Number of messages. */
+        @Label("Messages")
+        long messages;
+
+        /** Number of characters converted. */
+        @Label("Characters")
+        long characters;
+
+        /** Time spent converting, excluding time between messages. */
+        @Label("Conversion Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long convertTime;
+    }
+
+    /** A batch of reads or writes on one stream. */
+    @Name("enigma.IO")
+    @Category("Enigma")
+    @Label("Message I/O")
+    @Description("Bytes moved through a message stream, and the time "
+                 + "spent waiting on it")
+    static class IO extends Event {
+        /** Name of the stream. */
+        @Label("Stream")
+        String stream;
+
+        /** Number of bytes moved. */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Time spent inside reads or writes. */
+        @Label("Stall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long stallTime;
+    }
+
+    /** Record the application of SETTINGS, if recording. */
+    static void settingsApplied(Settings settings) {
+        SettingsApplied event = new SettingsApplied();
+        if (!event.isEnabled()) {
+            return;
+        }
+        StringBuilder rotors = new StringBuilder();
+        for (Rotor rotor : settings.rotors()) {
+            if (rotors.length() > 0) {
+                rotors.append(' ');
+            }
+            rotors.append(rotor.name());
+        }
+        int[] plugboard = settings.plugboard();
+        for (int i = 0; i < plugboard.length; i += 1) {
+            if (plugboard[i] != i) {
+                event.plugboardSize += 1;
+            }
+        }
+        event.rotors = rotors.toString();
+        event.commit();
+    }
+
+    /** Accumulates the conversions of one machine into batches. */
+    static class Batcher {
+
+        /** Return a start time to pass to end when a message has been
+         *  converted, or 0 if not recording. */
+        long start() {
+            if (!_event.isEnabled()) {
+                return 0;
+            }
+            if (_event.messages == 0) {
+                _event.begin();
+            }
+            return System.nanoTime();
+        }
+
+        /** Note the conversion of a message of LENGTH characters begun at
+         *  START, as returned by start. */
+        void end(long start, int length) {
+            if (start == 0) {
+                return;
+            }
+            _event.convertTime += System.nanoTime() - start;
+            _event.messages += 1;
+            _event.characters += length;
+            if (_event.characters >= BATCH_CHARACTERS) {
+                flush();
+            }
+        }
+
+        /** Record any partial batch. */
+        void flush() {
+            if (_event.messages > 0) {
+                _event.commit();
+                _event = new ConversionBatch();
+            }
+        }
+
+        /** Batch being accumulated. */
+        private ConversionBatch _event = new ConversionBatch();
+    }
+
+    /** An input stream recording the reads made through it. */
+    static class Input extends FilterInputStream {
+
+        /** A stream reading from IN, which is called NAME in events. */
+        Input(InputStream in, String name) {
+            super(in);
+            _io = new Batch(name);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = _io.start();
+            int result = in.read();
+            _io.end(start, result < 0 ? -1 : 1);
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = _io.start();
+            int result = in.read(b, off, len);
+            _io.end(start, result);
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _io.flush();
+            super.close();
+        }
+
+        /** Batch of reads. */
+        private final Batch _io;
+    }
+
+    /** An output stream recording the writes made through it. */
+    static class Output extends FilterOutputStream {
+
+        /** A stream writing to OUT, which is called NAME in events. */
+        Output(OutputStream out, String name) {
+            super(out);
+            _io = new Batch(name);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = _io.start();
+            out.write(b);
+            _io.end(start, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = _io.start();
+            out.write(b, off, len);
+            _io.end(start, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = _io.start();
+            out.flush();
+            _io.end(start, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            _io.flush();
+        }
+
+        /** Batch of writes. */
+        private final Batch _io;
+    }
+
+    /** Accumulates the reads or writes of one stream into batches. */
+    private static class Batch {
+
+        /** A batch for the stream called NAME. */
+        Batch(String name) {
+            _name = name;
+            _event = newEvent();
+        }
+
+        /** Return a start time to pass to end when a transfer is done,
+         *  or 0 if not recording. */
+        long start() {
+            if (!_event.isEnabled()) {
+                return 0;
+            }
+            if (_event.bytes == 0 && _event.stallTime == 0) {
+                _event.begin();
+            }
+            return System.nanoTime();
+        }
+
+        /** Note a transfer of COUNT bytes begun at START, as returned by
+         *  start.  A negative COUNT marks the end of the stream. */
+        void end(long start, int count) {
+            if (start == 0) {
+                return;
+            }
+            _event.stallTime += System.nanoTime() - start;
+            if (count < 0) {
+                flush();
+            } else {
+                _event.bytes += count;
+                if (_event.bytes >= BATCH_BYTES) {
+                    flush();
+                }
+            }
+        }
+
+        /** Record any partial batch. */
+        void flush() {
+            if (_event.bytes > 0 || _event.stallTime > 0) {
+                _event.commit();
+                _event = newEvent();
+            }
+        }
+
+        /** Return a new event for my stream. */
+        private IO newEvent() {
+            IO result = new IO();
+            result.stream = _name;
+            return result;
+        }
+
+        /** Name of the stream. */
+        private final String _name;
+
+        /** Batch being accumulated. */
+        private IO _event;
+    }
+
+    /** Number of characters converted per ConversionBatch event. */
+    static final long BATCH_CHARACTERS = 1 << 20;
+
+    /** Number of bytes moved per IO event. */
+    static final long BATCH_BYTES = 1 << 22;
+
+}
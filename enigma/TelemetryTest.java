@@ -0,0 +1,70 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/** The suite of all JUnit tests for Telemetry.
+ *  @author Jinho Shin
+ */
+public class TelemetryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    @Test
+    public void testEvents() throws IOException {
+        File f = File.createTempFile("enigma", ".jfr");
+        f.deleteOnExit();
+        Recording recording = new Recording();
+        for (String name : new String[] { "enigma.SettingsApplied",
+                                          "enigma.ConversionBatch",
+                                          "enigma.IO" }) {
+            recording.enable(name).withoutThreshold();
+        }
+        recording.start();
+        Machine m = new MachineTest().navalMachine();
+        Settings s = Settings.compile(m, "* B Beta I II III AAAA (AQ) (EP)");
+        m.apply(s);
+        Telemetry.settingsApplied(s);
+        m.convert("HELLO WORLD");
+        m.convert("HELLO");
+        m.flushTelemetry();
+        InputStream in = new Telemetry.Input(
+            new ByteArrayInputStream(new byte[1000]), "test");
+        while (in.read(new byte[300]) >= 0) {
+            continue;
+        }
+        recording.stop();
+        recording.dump(f.toPath());
+        recording.close();
+
+        Map<String, RecordedEvent> events = new HashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(f.toPath())) {
+            events.put(e.getEventType().getName(), e);
+        }
+        RecordedEvent settings = events.get("enigma.SettingsApplied");
+        assertEquals("B Beta I II III", settings.getString("rotors"));
+        assertEquals(4, settings.getInt("plugboardSize"));
+        RecordedEvent batch = events.get("enigma.ConversionBatch");
+        assertEquals(2, batch.getLong("messages"));
+        assertEquals(15, batch.getLong("characters"));
+        RecordedEvent io = events.get("enigma.IO");
+        assertEquals("test", io.getString("stream"));
+        assertEquals(1000, io.getLong("bytes"));
+    }
+
+}
@@ -11,7 +11,22 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      MachineTest.class,
+                                      KeySearchTest.class,
+                                      ConfigReaderTest.class,
+                                      PipelineTest.class,
+                                      CheckpointTest.class,
+                                      CompressionTest.class,
+                                      TelemetryTest.class,
+                                      BatchTest.class,
+                                      StreamProcessorTest.class,
+                                      InteractiveTest.class,
+                                      MappedOutputTest.class,
+                                      StateIndexTest.class,
+                                      AllocationTest.class,
+                                      ResultCacheTest.class,
+                                      CascadeTest.class));
     }
 
 }
@@ -0,0 +1,144 @@
+package enigma;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A generator of large, reproducible workloads for a machine
+ *  configuration: many settings lines with varied rotors, positions and
+ *  plugboards, each followed by message lines, together with the
+ *  output that Main should produce for them, computed with the
+ *  reference engine.  The same configuration and seed always give the
+ *  same workload.
+ *  @author Jinho Shin
+ */
+public final class Workload {
+
+    /** Usage: java enigma.Workload CONFIG SEED SETTINGS LINES LENGTH
+     *                               PLUGS INPUT OUTPUT
+     *  Write to the file INPUT a workload for the configuration in
+     *  CONFIG, generated from SEED, of SETTINGS settings lines, each
+     *  followed by LINES message lines of up to LENGTH characters, with
+     *  up to PLUGS plugboard pairs each, and write the expected output of
+     *  Main to the file OUTPUT. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 8) {
+                throw error("Usage: java enigma.Workload CONFIG SEED "
+                            + "SETTINGS LINES LENGTH PLUGS INPUT OUTPUT");
+            }
+            Workload load =
+                new Workload(ConfigReader.open(args[0]).read(),
+                             Long.parseLong(args[1]));
+            try (PrintStream input = new PrintStream(args[6]);
+                 PrintStream output = new PrintStream(args[7])) {
+                load.generate(Integer.parseInt(args[2]),
+                              Integer.parseInt(args[3]),
+                              Integer.parseInt(args[4]),
+                              Integer.parseInt(args[5]), input, output);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+        } catch (FileNotFoundException excp) {
+            System.err.printf("Error: could not open %s%n",
+                              excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A generator for machine M, which it uses to compute outputs,
+     *  drawing from a random sequence seeded with SEED. */
+    Workload(Machine M, long seed) {
+        _machine = M;
+        _keys = M.keyspace();
+        _random = new Random(seed);
+        if (_keys.size() == 0) {
+            throw error("configuration has no valid rotor orders");
+        }
+    }
+
+    /** Write SETTINGS settings lines to INPUT, each followed by LINES
+     *  message lines of up to LENGTH characters and using up to PLUGS
+     *  plugboard pairs, and write the corresponding output of Main to
+     *  OUTPUT. */
+    void generate(int settings, int lines, int length, int plugs,
+                  PrintStream input, PrintStream output) {
+        char[] result = new char[length];
+        for (int s = 0; s < settings; s += 1) {
+            String line = settingsLine(plugs);
+            input.println(line);
+            _machine.apply(Settings.compile(_machine, line));
+            for (int k = 0; k < lines; k += 1) {
+                String msg = message(length);
+                input.println(msg);
+                int len = _machine.convert(msg.toCharArray(), msg.length(),
+                                           result);
+                output.println(Main.groups(new String(result, 0, len)));
+            }
+        }
+    }
+
+    /** Return a random settings line with up to PLUGS plugboard
+     *  pairs. */
+    String settingsLine(int plugs) {
+        long key = Math.floorMod(_random.nextLong(), _keys.size());
+        StringBuilder line = new StringBuilder(_keys.settingsLine(key));
+        Alphabet alpha = _machine.alphabet();
+        int n = alpha.size();
+        int[] letters = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            letters[i] = i;
+        }
+        int pairs = _random.nextInt(Math.min(plugs, n / 2) + 1);
+        for (int i = 0; i < 2 * pairs; i += 1) {
+            int j = i + _random.nextInt(n - i);
+            int t = letters[i];
+            letters[i] = letters[j];
+            letters[j] = t;
+        }
+        for (int i = 0; i < 2 * pairs; i += 2) {
+            line.append(" (").append(alpha.toChar(letters[i]))
+                .append(alpha.toChar(letters[i + 1])).append(')');
+        }
+        return line.toString();
+    }
+
+    /** Return a random message line of up to LENGTH characters, with
+     *  occasional blanks and no asterisks (which would make it a
+     *  settings line). */
+    String message(int length) {
+        Alphabet alpha = _machine.alphabet();
+        int len = length / 2 + _random.nextInt(length - length / 2 + 1);
+        StringBuilder msg = new StringBuilder(len);
+        for (int i = 0; i < len; i += 1) {
+            if (i > 0 && _random.nextInt(BLANK_ODDS) == 0) {
+                msg.append(' ');
+            } else {
+                char c;
+                do {
+                    c = alpha.toChar(_random.nextInt(alpha.size()));
+                } while (c == '*');
+                msg.append(c);
+            }
+        }
+        return msg.toString();
+    }
+
+    /** One in this many message characters is a blank. */
+    private static final int BLANK_ODDS = 7;
+
+    /** Machine computing outputs. */
+    private final Machine _machine;
+
+    /** Keys of the machine. */
+    private final Keyspace _keys;
+
+    /** Source of the workload. */
+    private final Random _random;
+
+}